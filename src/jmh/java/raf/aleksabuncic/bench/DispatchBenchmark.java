@@ -0,0 +1,47 @@
+package raf.aleksabuncic.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NodeRuntime.handleMessage dispatch of incoming TRANSFER messages with no snapshot strategy set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"4", "64"})
+    private int degree;
+
+    private NodeRuntime runtime;
+    private Message[] transfers;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        runtime = RuntimeBenchmarks.newRuntime(degree);
+        transfers = new Message[degree];
+        for (int i = 0; i < degree; i++) {
+            transfers[i] = new Message("TRANSFER", i + 1, "1");
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void transfer() {
+        runtime.handleMessage(transfers[next]);
+        next = next + 1 == transfers.length ? 0 : next + 1;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contendedTransfer() {
+        runtime.handleMessage(transfers[(int) (Thread.currentThread().getId() % transfers.length)]);
+    }
+}
@@ -0,0 +1,53 @@
+package raf.aleksabuncic.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import raf.aleksabuncic.core.codec.MessageCodec;
+import raf.aleksabuncic.core.codec.MessageCodecs;
+import raf.aleksabuncic.types.Message;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of single messages, Java serialization against the binary codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"java", "binary"})
+    private String codecName;
+
+    @Param({"TRANSFER", "SNAPSHOT_MARKER"})
+    private String type;
+
+    private MessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = MessageCodecs.forName(codecName);
+        message = new Message(type, 7, "TRANSFER".equals(type) ? "42" : "3:17:1");
+        encoded = codec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole blackhole) throws IOException {
+        blackhole.consume(codec.decode(codec.encode(message)));
+    }
+}
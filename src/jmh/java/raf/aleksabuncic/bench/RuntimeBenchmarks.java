@@ -0,0 +1,41 @@
+package raf.aleksabuncic.bench;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.Node;
+import raf.aleksabuncic.types.Topology;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds node runtimes for benchmarks. Neighbors are never started, so nothing a node sends is
+ * delivered, and output goes under target/ instead of the working directory.
+ */
+final class RuntimeBenchmarks {
+    private RuntimeBenchmarks() {
+    }
+
+    /**
+     * Creates a runtime on the in-memory transport with the given number of neighbors.
+     *
+     * @param degree Number of neighbors.
+     * @return Runtime, not started.
+     */
+    static NodeRuntime newRuntime(int degree) {
+        ArrayList<Integer> neighbors = new ArrayList<>();
+        Map<Integer, Node> nodes = new HashMap<>();
+        for (int i = 1; i <= degree; i++) {
+            neighbors.add(i);
+            nodes.put(i, new Node(i, 40000 + i, 0, new int[0]));
+        }
+
+        Node node = new Node(0, 40000, Integer.MAX_VALUE / 2, neighbors);
+        nodes.put(0, node);
+        Topology topology = Topology.of(nodes);
+        node.getSettings().setTransport("memory");
+        node.getSettings().setOutputDirectory("target/jmh-output");
+        node.getSettings().setStoreDirectory("target/jmh-output/store");
+        return new NodeRuntime(node, topology);
+    }
+}
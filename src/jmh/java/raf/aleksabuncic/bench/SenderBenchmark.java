@@ -0,0 +1,93 @@
+package raf.aleksabuncic.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raf.aleksabuncic.core.codec.MessageCodecs;
+import raf.aleksabuncic.core.handler.MessageFrames;
+import raf.aleksabuncic.core.handler.Sender;
+import raf.aleksabuncic.types.Message;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips over loopback: a message is sent and the benchmark waits until the receiving side has decoded it.
+ * The one-off Sender.sendMessage opens a connection per message; a Sender instance keeps one open.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SenderBenchmark {
+    /**
+     * Both senders write binary frames, so the reader decodes like a node on the binary codec.
+     */
+    private static final boolean ACCEPT_JAVA = false;
+
+    private final Semaphore received = new Semaphore(0);
+    private final Message message = new Message("TRANSFER", 1, "5");
+    private ServerSocket server;
+    private Sender sender;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(this::accept, "bench-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        sender = new Sender("localhost", server.getLocalPort(), MessageCodecs.BINARY);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void oneOffConnection() throws InterruptedException {
+        Sender.sendMessage("localhost", server.getLocalPort(), message);
+        received.acquire();
+    }
+
+    @Benchmark
+    public void persistentConnection() throws IOException, InterruptedException {
+        sender.send(message);
+        received.acquire();
+    }
+
+    /**
+     * Accepts connections until the server is closed, reading each one on its own thread.
+     */
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread reader = new Thread(() -> read(socket), "bench-reader");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes frames from one connection and signals every decoded message.
+     *
+     * @param socket Accepted connection.
+     */
+    private void read(Socket socket) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (MessageFrames.readFrame(in, ACCEPT_JAVA, m -> received.release()) >= 0) {
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package raf.aleksabuncic.bench;
+
+import org.openjdk.jmh.annotations.*;
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.snapshot.AcharyaBadrinathSnapshot;
+import raf.aleksabuncic.core.snapshot.AlagarVenkatesanSnapshot;
+import raf.aleksabuncic.core.snapshot.CoordinatedCheckpointingSnapshot;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.Snapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot.handleMessage throughput of each algorithm under a stream of TRANSFER messages, with
+ * no snapshot running and with one snapshot waiting for the markers of every neighbor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotTransferBenchmark {
+    @Param({"av", "ab", "kc"})
+    private String snapshotType;
+
+    @Param({"false", "true"})
+    private boolean recording;
+
+    @Param({"4", "64"})
+    private int degree;
+
+    private Snapshot snapshot;
+    private Message[] transfers;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        NodeRuntime runtime = RuntimeBenchmarks.newRuntime(degree);
+        snapshot = switch (snapshotType) {
+            case "ab" -> new AcharyaBadrinathSnapshot(runtime);
+            case "kc" -> new CoordinatedCheckpointingSnapshot(runtime);
+            default -> new AlagarVenkatesanSnapshot(runtime);
+        };
+        runtime.setSnapshot(snapshot);
+        if (recording) {
+            runtime.startSnapshot();
+        }
+
+        transfers = new Message[degree];
+        for (int i = 0; i < degree; i++) {
+            transfers[i] = new Message("TRANSFER", i + 1, "1");
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        snapshot.handleMessage(transfers[next]);
+        next = next + 1 == transfers.length ? 0 : next + 1;
+    }
+}
@@ -2,18 +2,28 @@ package raf.aleksabuncic.automatic;
 
 import raf.aleksabuncic.core.*;
 import raf.aleksabuncic.core.handler.ConfigHandler;
+import raf.aleksabuncic.core.transport.InFlightMessages;
 import raf.aleksabuncic.core.snapshot.AcharyaBadrinathSnapshot;
 import raf.aleksabuncic.core.snapshot.AlagarVenkatesanSnapshot;
 import raf.aleksabuncic.core.snapshot.CoordinatedCheckpointingSnapshot;
+import raf.aleksabuncic.core.snapshot.LaiYangSnapshot;
 import raf.aleksabuncic.types.Node;
+import raf.aleksabuncic.types.SnapshotReport;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class AutoLauncher {
+    private static final long STARTUP_TIMEOUT_MILLIS = 30_000;
+    private static final long STEP_TIMEOUT_MILLIS = 30_000;
+
     private final Map<Integer, NodeRuntime> runtimes = new HashMap<>();
 
     public static void main(String[] args) throws Exception {
@@ -21,7 +31,9 @@ public class AutoLauncher {
     }
 
     /**
-     * Launches the nodes and executes the instructions.
+     * Launches the nodes and runs the configured workload, or executes the instructions if the
+     * configuration has no workload block. Runs start once every node is listening, and each
+     * instruction waits until the snapshot it started is assembled and no messages are in flight.
      *
      * @param configPath       Path to the configuration file.
      * @param instructionsPath Path to the instructions file.
@@ -30,38 +42,58 @@ public class AutoLauncher {
     public void launch(String configPath, String instructionsPath) throws Exception {
         ConfigHandler.ConfigResult config = ConfigHandler.load(configPath);
 
+        List<CompletableFuture<Void>> listening = new ArrayList<>();
         for (Node node : config.allNodes.values()) {
-            Map<Integer, Integer> neighborPorts = new HashMap<>();
-            for (int neighborId : node.getNeighbors()) {
-                Node neighbor = config.allNodes.get(neighborId);
-                if (neighbor != null) {
-                    neighborPorts.put(neighborId, neighbor.getPort());
-                }
-            }
-
-            NodeRuntime runtime = new NodeRuntime(node, neighborPorts);
+            NodeRuntime runtime = new NodeRuntime(node, config.topology);
+            runtime.setExpectedTotal(config.totalBitcakes);
 
             switch (config.snapshotType.toLowerCase()) {
                 case "ab" -> runtime.setSnapshot(new AcharyaBadrinathSnapshot(runtime));
                 case "av" -> runtime.setSnapshot(new AlagarVenkatesanSnapshot(runtime));
                 case "kc" -> runtime.setSnapshot(new CoordinatedCheckpointingSnapshot(runtime));
+                case "ly" -> runtime.setSnapshot(new LaiYangSnapshot(runtime));
                 default -> throw new IllegalArgumentException("Unknown snapshot type: " + config.snapshotType);
             }
 
-            runtime.start();
+            listening.add(runtime.start());
             runtimes.put(node.getId(), runtime);
         }
 
-        Thread.sleep(1000);
+        CompletableFuture.allOf(listening.toArray(new CompletableFuture<?>[0])).get(STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (config.workload != null) {
+            new LoadGenerator(runtimes, config.workload).run().print(System.out);
+            return;
+        }
 
         List<NodeCommand> commands = parseInstructions(instructionsPath);
         for (NodeCommand cmd : commands) {
             if (cmd instanceof SendCommand send) {
                 runtimes.get(send.from()).trySendBitcakes(send.to(), send.amount());
             } else if (cmd instanceof SnapshotCommand snap) {
-                runtimes.get(snap.initiator()).startSnapshot();
+                awaitSnapshot(snap, runtimes.get(snap.initiator()).startSnapshot());
+            }
+            if (!InFlightMessages.shared().awaitQuiescence(STEP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                System.out.println("Messages still in flight after " + cmd + ", continuing.");
             }
-            Thread.sleep(500);
+        }
+    }
+
+    /**
+     * Waits for a snapshot started by an instruction to be assembled.
+     *
+     * @param cmd    Instruction that started the snapshot.
+     * @param future Completion of the snapshot.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private static void awaitSnapshot(SnapshotCommand cmd, CompletableFuture<SnapshotReport> future) throws InterruptedException {
+        try {
+            future.get(STEP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            System.out.println("Snapshot from Node " + cmd.initiator() + " failed: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            System.out.println("Snapshot from Node " + cmd.initiator() + " not assembled after " + STEP_TIMEOUT_MILLIS + " ms, continuing.");
         }
     }
 
@@ -0,0 +1,172 @@
+package raf.aleksabuncic.automatic;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.Threads;
+import raf.aleksabuncic.core.transport.InFlightMessages;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
+import raf.aleksabuncic.types.WorkloadSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives running nodes with a generated workload: every node sends transfers to its neighbors at a
+ * fixed rate while snapshots are started at a fixed interval, and the results are summed up in a
+ * WorkloadReport once the run and the drain period are over.
+ */
+public class LoadGenerator {
+    private final Map<Integer, NodeRuntime> runtimes;
+    private final WorkloadSettings settings;
+    private final List<long[]> completedSnapshots = new ArrayList<>();
+    private final AtomicLong sentTransfers = new AtomicLong();
+    private final AtomicLong attemptedTransfers = new AtomicLong();
+    private volatile boolean running = false;
+
+    public LoadGenerator(Map<Integer, NodeRuntime> runtimes, WorkloadSettings settings) {
+        this.runtimes = new TreeMap<>(runtimes);
+        this.settings = settings;
+    }
+
+    /**
+     * Runs the workload, then waits until no messages are in flight, at most the drain time.
+     *
+     * @return Report of the run.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public WorkloadReport run() throws InterruptedException {
+        Map<Integer, Long> rejectedBefore = new TreeMap<>();
+        for (NodeRuntime runtime : runtimes.values()) {
+            rejectedBefore.put(runtime.getId(), runtime.getRejectedTransfers());
+            runtime.setSnapshotListener(this::recordSnapshot);
+        }
+
+        running = true;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(settings.getDurationMillis());
+        List<Thread> senders = new ArrayList<>();
+        for (NodeRuntime runtime : runtimes.values()) {
+            senders.add(Threads.start(false, "load-" + runtime.getId(), () -> sendLoop(runtime, deadline)));
+        }
+
+        int snapshotsStarted = settings.isSnapshotting() ? snapshotLoop(start, deadline) : 0;
+        waitUntil(deadline);
+        running = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (!InFlightMessages.shared().awaitQuiescence(settings.getDrainMillis(), TimeUnit.MILLISECONDS)) {
+            System.out.println("Messages still in flight after " + settings.getDrainMillis() + " ms of draining.");
+        }
+
+        Map<Integer, Long> rejected = new TreeMap<>();
+        for (NodeRuntime runtime : runtimes.values()) {
+            rejected.put(runtime.getId(), runtime.getRejectedTransfers() - rejectedBefore.get(runtime.getId()));
+            runtime.setSnapshotListener(null);
+        }
+
+        long[] latencies;
+        long messages = 0;
+        synchronized (completedSnapshots) {
+            latencies = new long[completedSnapshots.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = completedSnapshots.get(i)[0];
+                messages += completedSnapshots.get(i)[1];
+            }
+        }
+        return new WorkloadReport(elapsed, attemptedTransfers.get(), sentTransfers.get(), snapshotsStarted,
+                latencies, messages, rejected);
+    }
+
+    /**
+     * Sends transfers from one node to its neighbors at the configured rate until the deadline.
+     * Sends follow a fixed schedule; if the node falls behind by more than one period the schedule
+     * is moved forward instead of sending a burst.
+     *
+     * @param runtime  Node to send from.
+     * @param deadline End of the run, in System.nanoTime.
+     */
+    private void sendLoop(NodeRuntime runtime, long deadline) {
+        List<Integer> neighbors = runtime.getNodeModel().getNeighbors();
+        if (neighbors.isEmpty() || settings.getTransfersPerSecond() <= 0) {
+            return;
+        }
+
+        SplittableRandom random = new SplittableRandom(settings.getSeed() * 31 + runtime.getId());
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / settings.getTransfersPerSecond());
+        long next = System.nanoTime();
+        int round = 0;
+        while (running && next < deadline) {
+            waitUntil(next);
+            int neighborId = settings.pickDestination(neighbors, random, round++);
+            attemptedTransfers.incrementAndGet();
+            if (runtime.trySendBitcakes(neighborId, settings.pickAmount(random))) {
+                sentTransfers.incrementAndGet();
+            }
+            next += period;
+            long now = System.nanoTime();
+            if (now - next > period) {
+                next = now;
+            }
+        }
+    }
+
+    /**
+     * Starts snapshots at the configured interval until the deadline.
+     *
+     * @param start    Start of the run, in System.nanoTime.
+     * @param deadline End of the run, in System.nanoTime.
+     * @return Number of snapshots started.
+     */
+    private int snapshotLoop(long start, long deadline) {
+        List<Integer> ids = new ArrayList<>(runtimes.keySet());
+        SplittableRandom random = new SplittableRandom(settings.getSeed());
+        long interval = TimeUnit.MILLISECONDS.toNanos(settings.getSnapshotIntervalMillis());
+        int started = 0;
+        for (long next = start + interval; next < deadline; next += interval) {
+            waitUntil(next);
+            int initiator = settings.pickInitiator(ids, random, started);
+            NodeRuntime runtime = runtimes.get(initiator);
+            if (runtime == null) {
+                System.out.println("Unknown snapshot initiator: " + initiator);
+                return started;
+            }
+            runtime.startSnapshot();
+            started++;
+        }
+        return started;
+    }
+
+    /**
+     * Records the latency and message count of a completed snapshot.
+     *
+     * @param snapshotId   ID of the snapshot.
+     * @param report       Assembled global result.
+     * @param elapsedNanos Time from initiation to assembly.
+     */
+    private void recordSnapshot(SnapshotId snapshotId, SnapshotReport report, long elapsedNanos) {
+        synchronized (completedSnapshots) {
+            completedSnapshots.add(new long[]{elapsedNanos, report.messages()});
+        }
+    }
+
+    /**
+     * Parks the calling thread until the given time.
+     *
+     * @param deadline Time to wait for, in System.nanoTime.
+     */
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
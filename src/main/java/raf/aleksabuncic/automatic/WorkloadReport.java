@@ -0,0 +1,71 @@
+package raf.aleksabuncic.automatic;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Result of a generated workload run.
+ *
+ * @param elapsedNanos       Length of the load phase.
+ * @param attemptedTransfers Number of transfers the nodes tried to send.
+ * @param sentTransfers      Number of transfers that were queued.
+ * @param snapshotsStarted   Number of snapshot initiations requested.
+ * @param latencies          Completion latency of every assembled snapshot, in nanoseconds.
+ * @param snapshotMessages   Control messages of all assembled snapshots together.
+ * @param rejected           Transfers rejected for insufficient balance, per node ID.
+ */
+public record WorkloadReport(long elapsedNanos, long attemptedTransfers, long sentTransfers, int snapshotsStarted,
+                             long[] latencies, long snapshotMessages, Map<Integer, Long> rejected) {
+    /**
+     * Gets the rate of queued transfers over the load phase.
+     *
+     * @return Transfers per second.
+     */
+    public double transfersPerSecond() {
+        return elapsedNanos == 0 ? 0 : sentTransfers * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Gets a snapshot completion latency percentile, by nearest rank.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Latency in milliseconds, or 0 if no snapshot completed.
+     */
+    public double latencyMillis(double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1_000_000.0;
+    }
+
+    /**
+     * Gets the average number of control messages per completed snapshot.
+     *
+     * @return Messages per snapshot, or 0 if no snapshot completed.
+     */
+    public double messagesPerSnapshot() {
+        return latencies.length == 0 ? 0 : (double) snapshotMessages / latencies.length;
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @param out Stream to print to.
+     */
+    public void print(PrintStream out) {
+        out.println("=== Workload report ===");
+        out.printf("Duration: %.3f s%n", elapsedNanos / 1_000_000_000.0);
+        out.printf("Transfers: %d sent / %d attempted | %.1f transfers/s%n", sentTransfers, attemptedTransfers, transfersPerSecond());
+        out.printf("Snapshots: %d completed / %d started%n", latencies.length, snapshotsStarted);
+        out.printf("Snapshot latency: p50 %.3f ms | p99 %.3f ms | p999 %.3f ms%n",
+                latencyMillis(50), latencyMillis(99), latencyMillis(99.9));
+        out.printf("Messages per snapshot: %.1f%n", messagesPerSnapshot());
+        for (Map.Entry<Integer, Long> entry : rejected.entrySet()) {
+            out.println("Node " + entry.getKey() + " rejected transfers: " + entry.getValue());
+        }
+    }
+}
@@ -1,98 +1,311 @@
 package raf.aleksabuncic.core;
 
 import lombok.Getter;
-import raf.aleksabuncic.core.handler.ConnectionHandler;
-import raf.aleksabuncic.core.handler.Sender;
+import lombok.Setter;
+import raf.aleksabuncic.core.log.Loggers;
+import raf.aleksabuncic.core.log.NodeLogger;
+import raf.aleksabuncic.core.metrics.NodeMetrics;
+import raf.aleksabuncic.core.output.OutputWriter;
+import raf.aleksabuncic.core.output.OutputWriters;
+import raf.aleksabuncic.core.output.SnapshotStore;
+import raf.aleksabuncic.core.output.SnapshotStores;
+import raf.aleksabuncic.core.transport.FlowControl;
+import raf.aleksabuncic.core.transport.InFlightMessages;
+import raf.aleksabuncic.core.transport.InMemoryNetwork;
+import raf.aleksabuncic.core.transport.InMemoryTransport;
+import raf.aleksabuncic.core.transport.TcpTransport;
+import raf.aleksabuncic.core.transport.Transport;
 import raf.aleksabuncic.types.Snapshot;
 import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.LocalState;
+import raf.aleksabuncic.types.NeighborIndex;
 import raf.aleksabuncic.types.Node;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
+import raf.aleksabuncic.types.Topology;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class NodeRuntime {
     @Getter
-    private final Map<Integer, Integer> requestSourceMap = new HashMap<>();
+    private final Map<SnapshotId, Integer> requestSourceMap = new HashMap<>();
     @Getter
     private final Node nodeModel;
     @Getter
-    private final Map<Integer, Integer> neighborPortMap;
-    private Snapshot activeSnapshot;
+    private final NeighborIndex neighborIndex;
+    @Getter
+    private final NodeMetrics metrics;
+    @Getter
+    private final NodeLogger logger;
+    @Getter
+    private final ExecutorService executor;
+    @Getter
+    private final Transport transport;
+    @Getter
+    private final FlowControl flowControl;
+    @Getter
+    private final OutputWriter output;
+    @Getter
+    private final SnapshotStore snapshotStore;
+    @Getter
+    @Setter
+    private long expectedTotal = -1;
+    @Getter
+    @Setter
+    private Topology topology;
+    @Setter
+    private SnapshotListener snapshotListener;
+    @Getter
+    @Setter
+    private LongSupplier clock = System::nanoTime;
+    private final LongAdder rejectedTransfers = new LongAdder();
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private volatile Snapshot activeSnapshot;
+
+    /**
+     * Creates a runtime that takes its neighbors and their ports from the shared topology of the configuration.
+     *
+     * @param nodeModel Node to run.
+     * @param topology  Topology of the whole configuration.
+     */
+    public NodeRuntime(Node nodeModel, Topology topology) {
+        this(nodeModel, topology, null, null);
+    }
 
-    public NodeRuntime(Node nodeModel, Map<Integer, Integer> neighborPortMap) {
+    /**
+     * Creates a runtime on a given transport and executor instead of the ones the settings select,
+     * for example to run many nodes in a simulation.
+     *
+     * @param nodeModel Node to run.
+     * @param topology  Topology of the whole configuration.
+     * @param transport Transport to send and receive on.
+     * @param executor  Executor for the node's background tasks.
+     */
+    public NodeRuntime(Node nodeModel, Topology topology, Transport transport, ExecutorService executor) {
         this.nodeModel = nodeModel;
-        this.neighborPortMap = neighborPortMap;
+        this.topology = topology;
+        this.neighborIndex = topology.neighborsOf(nodeModel.getId());
+        this.metrics = new NodeMetrics(neighborIndex);
+        this.logger = Loggers.forNode("[Node " + nodeModel.getId() + "]", nodeModel.getSettings());
+        this.executor = executor != null ? executor
+                : Threads.newPerTaskExecutor(nodeModel.getSettings().isVirtualThreads(), "node-" + nodeModel.getId());
+        if (transport != null) {
+            this.transport = transport;
+        } else if (nodeModel.getSettings().isInMemoryTransport()) {
+            this.transport = new InMemoryTransport(InMemoryNetwork.shared(), this.executor);
+        } else {
+            this.transport = new TcpTransport(neighborIndex, nodeModel.getSettings(), this.executor, metrics,
+                    this::undelivered);
+        }
+        this.flowControl = new FlowControl(nodeModel.getId(), this.transport, neighborIndex, metrics,
+                FlowControl.Policy.fromName(nodeModel.getSettings().getFlowPolicy()), nodeModel.getSettings().getFlowWindow());
+        this.output = OutputWriters.forNode(nodeModel.getId(), nodeModel.getSettings());
+        this.snapshotStore = SnapshotStores.forSettings(nodeModel.getSettings());
     }
 
     /**
      * Starts the node runtime.
+     *
+     * @return Future that completes once the node can receive messages, or fails if it cannot listen.
      */
-    public void start() {
-        int port = nodeModel.getPort();
-        new Thread(new ConnectionHandler(this, port)).start();
+    public CompletableFuture<Void> start() {
+        if (nodeModel.getSettings().isVirtualThreads() && !Threads.virtualThreadsAvailable()) {
+            logger.warn("Virtual threads are not supported by this JVM, using platform threads.");
+        }
+        if (nodeModel.getSettings().isJmxMetrics()) {
+            metrics.register(getId(), logger);
+        }
+        return transport.start(this);
     }
 
     /**
      * Tries to send bitcakes to a neighbor.
+     * The debit and the hand-off to the outbound queue happen under the shared state lock, so a
+     * snapshot recording (exclusive lock) sees either both or neither, and the TRANSFER is queued
+     * on the channel before or after the snapshot's marker accordingly. The network write itself
+     * happens later on the transport's outbound path.
+     * With flow control, the credit is taken before the state lock: under the block policy this
+     * waits for the neighbor to return credit, under fail it rejects the transfer, and under queue
+     * the transfer is debited and held on the channel until credit arrives.
      *
      * @param neighborId ID of the neighbor to send to.
      * @param amount     Amount of bitcakes to send.
+     * @return True if the transfer was queued, false if it was rejected or failed.
      */
-    public synchronized void trySendBitcakes(int neighborId, int amount) {
-        if (!nodeModel.getNeighbors().contains(neighborId)) {
-            log("Cannot send to Node " + neighborId + ": not a neighbor.");
-            return;
+    public boolean trySendBitcakes(int neighborId, int amount) {
+        if (!neighborIndex.contains(neighborId)) {
+            logger.warn("Cannot send to Node {}: not a neighbor.", neighborId);
+            return false;
         }
 
-        if (nodeModel.getBitcake() < amount) {
-            log("Not enough bitcakes.");
-            return;
+        try {
+            if (!flowControl.admit(neighborId)) {
+                logger.debug("No credit on the channel to Node {}, transfer of {} rejected.", neighborId, amount);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
 
-        nodeModel.setBitcake(nodeModel.getBitcake() - amount);
-        Message msg = new Message("TRANSFER", nodeModel.getId(), String.valueOf(amount));
-        int port = neighborPortMap.get(neighborId);
-        Sender.sendMessage("localhost", port, msg);
-        log("Sent " + amount + " bitcakes to Node " + neighborId);
+        int index = neighborIndex.indexOf(neighborId);
+        Message msg;
+        stateLock.readLock().lock();
+        try {
+            if (!nodeModel.tryDebit(index, amount)) {
+                flowControl.cancel(neighborId);
+                rejectedTransfers.increment();
+                logger.debug("Not enough bitcakes to send {} to Node {}.", amount, neighborId);
+                return false;
+            }
+
+            Snapshot snapshot = activeSnapshot;
+            if (snapshot != null) {
+                snapshot.onTransferSending(neighborId);
+                msg = new Message("TRANSFER", nodeModel.getId(), snapshot.transferContent(amount));
+            } else {
+                msg = new Message("TRANSFER", nodeModel.getId(), String.valueOf(amount));
+            }
+
+            try {
+                flowControl.send(neighborId, msg);
+            } catch (IOException e) {
+                nodeModel.refund(index, amount);
+                metrics.sendFailed(neighborId);
+                logger.warn("Failed to send {} bitcakes to Node {}: {}", amount, neighborId, e.getMessage());
+                return false;
+            }
+            metrics.messageSent(msg.type());
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        logger.debug("Sent {} bitcakes to Node {}", amount, neighborId);
+        return true;
     }
 
     /**
      * Receives bitcakes from a neighbor.
+     * The snapshot sees the transfer and the balance is credited under the shared state lock, so a
+     * snapshot recording cannot fall between the two.
      *
      * @param amount   Amount of bitcakes received.
      * @param senderId ID of the neighbor that sent the bitcakes.
      */
-    public synchronized void receiveBitcakes(int amount, int senderId) {
+    public void receiveBitcakes(int amount, int senderId) {
         Message m = new Message("TRANSFER", senderId, String.valueOf(amount));
+        stateLock.readLock().lock();
+        try {
+            Snapshot snapshot = activeSnapshot;
+            if (snapshot != null) {
+                snapshot.handleMessage(m);
+            }
 
-        if (activeSnapshot != null) {
-            activeSnapshot.handleMessage(m);
+            nodeModel.credit(neighborIndex.indexOf(senderId), amount);
+        } finally {
+            stateLock.readLock().unlock();
         }
-
-        nodeModel.setBitcake(nodeModel.getBitcake() + amount);
-        log("Received " + amount + " bitcakes from Node " + senderId);
+        logger.debug("Received {} bitcakes from Node {}", amount, senderId);
     }
 
+    /**
+     * Handles an incoming message and records how long it took. The message stops counting as in
+     * flight only after everything it caused was sent.
+     *
+     * @param message Message to handle.
+     */
     public void handleMessage(Message message) {
+        long start = System.nanoTime();
+        try {
+            dispatch(message);
+        } finally {
+            metrics.messageHandled(message.type(), System.nanoTime() - start);
+            InFlightMessages.shared().settled(1);
+        }
+    }
+
+    /**
+     * Passes an incoming message to the bitcake balance or the snapshot strategy.
+     *
+     * @param message Message to dispatch.
+     */
+    private void dispatch(Message message) {
         int senderId = message.senderId();
 
         switch (message.type()) {
             case "TRANSFER" -> {
-                int amount = Integer.parseInt(message.content());
-                receiveBitcakes(amount, senderId);
+                String content = message.content();
+                int separator = content.indexOf(':');
+                if (separator >= 0) {
+                    recordBeforeTransfer(senderId, content.substring(separator + 1));
+                }
+                receiveBitcakes(transferAmount(content), senderId);
+                flowControl.onTransferHandled(senderId);
+            }
+            case FlowControl.CREDIT -> {
+                for (Message failed : flowControl.onCredit(senderId, Integer.parseInt(message.content()))) {
+                    refundTransfer(senderId, transferAmount(failed.content()));
+                }
             }
-            case "SNAPSHOT_TRIGGER", "CHECKPOINT_REQUEST", "CHECKPOINT_ACK", "SNAPSHOT_MARKER" -> {
-                if (activeSnapshot != null) {
-                    activeSnapshot.handleMessage(message);
+            case "SNAPSHOT_TRIGGER", "CHECKPOINT_REQUEST", "CHECKPOINT_ACK", "SNAPSHOT_MARKER", "SNAPSHOT_REPORT" -> {
+                Snapshot snapshot = activeSnapshot;
+                if (snapshot == null) {
+                    logger.warn("No active snapshot to handle {}: {}", message.type(), message);
+                } else if (!snapshot.requiresStateLock()) {
+                    snapshot.handleMessage(message);
                 } else {
-                    log("No active snapshot to handle " + message.type() + ": " + message);
+                    stateLock.writeLock().lock();
+                    try {
+                        snapshot.handleMessage(message);
+                    } finally {
+                        stateLock.writeLock().unlock();
+                    }
                 }
             }
-            default -> log("Unknown message type: " + message.type());
+            default -> logger.warn("Unknown message type: {}", message.type());
         }
     }
 
 
+    /**
+     * Lets the snapshot record before a transfer whose piggybacked tag requires it. The cheap check
+     * runs without locks, so untagged epochs cost nothing; the recording itself takes the exclusive
+     * state lock like any other snapshot control message.
+     *
+     * @param senderId ID of the neighbor the transfer came from.
+     * @param tag      Tag piggybacked on the transfer.
+     */
+    private void recordBeforeTransfer(int senderId, String tag) {
+        Snapshot snapshot = activeSnapshot;
+        if (snapshot == null || !snapshot.mustRecordBefore(tag)) {
+            return;
+        }
+        stateLock.writeLock().lock();
+        try {
+            snapshot.recordBeforeTransfer(senderId, tag);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the amount of a TRANSFER, ignoring a piggybacked ":tag".
+     *
+     * @param content Message content.
+     * @return Amount of bitcakes.
+     */
+    private static int transferAmount(String content) {
+        int separator = content.indexOf(':');
+        return Integer.parseInt(separator < 0 ? content : content.substring(0, separator));
+    }
+
     /**
      * Sends a message to a neighbor node.
      *
@@ -100,16 +313,59 @@ public class NodeRuntime {
      * @param message    Message to send.
      */
     public void sendMessageTo(int neighborId, Message message) {
-        if (!neighborPortMap.containsKey(neighborId)) {
-            log("Cannot send to unknown neighbor: " + neighborId);
+        int index = neighborIndex.indexOf(neighborId);
+        if (index < 0 || neighborIndex.portAt(index) < 0) {
+            logger.warn("Cannot send to unknown neighbor: {}", neighborId);
             return;
         }
-        int port = neighborPortMap.get(neighborId);
         try {
-            Sender.sendMessage("localhost", port, message);
-            log("Sent message to Node " + neighborId + ": " + message);
+            flowControl.send(neighborId, message);
+            metrics.messageSent(message.type());
+            logger.debug("Sent message to Node {}: {}", neighborId, message);
         } catch (Exception e) {
-            log("Failed to send message to Node " + neighborId + ": " + e.getMessage());
+            metrics.sendFailed(neighborId);
+            logger.warn("Failed to send message to Node {}: {}", neighborId, e.getMessage());
+        }
+    }
+
+    /**
+     * Gives back the bitcakes of a transfer that was debited but never reached the neighbor.
+     *
+     * @param neighborId ID of the neighbor the transfer was for.
+     * @param amount     Amount of the transfer.
+     */
+    private void refundTransfer(int neighborId, int amount) {
+        stateLock.readLock().lock();
+        try {
+            nodeModel.refund(neighborIndex.indexOf(neighborId), amount);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        metrics.sendFailed(neighborId);
+        logger.warn("Failed to deliver {} bitcakes to Node {}, refunded.", amount, neighborId);
+    }
+
+    /**
+     * Undoes messages the transport accepted but could not write. Transfers are refunded, and the
+     * flow credits they took are returned, since the neighbor will never hand them back.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param messages   Messages that were not delivered.
+     */
+    private void undelivered(int neighborId, List<Message> messages) {
+        int credits = 0;
+        for (Message message : messages) {
+            if ("TRANSFER".equals(message.type())) {
+                refundTransfer(neighborId, transferAmount(message.content()));
+                credits++;
+            } else {
+                logger.warn("Failed to deliver {} to Node {}.", message.type(), neighborId);
+            }
+        }
+        if (credits > 0 && flowControl.isEnabled()) {
+            for (Message failed : flowControl.onCredit(neighborId, credits)) {
+                refundTransfer(neighborId, transferAmount(failed.content()));
+            }
         }
     }
 
@@ -118,21 +374,88 @@ public class NodeRuntime {
      *
      * @param snapshot Snapshot to set.
      */
-    public synchronized void setSnapshot(Snapshot snapshot) {
-        this.activeSnapshot = snapshot;
+    public void setSnapshot(Snapshot snapshot) {
+        stateLock.writeLock().lock();
+        try {
+            this.activeSnapshot = snapshot;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
     }
 
     /**
      * Start snapshot.
+     *
+     * @return Future that completes with the global result once the snapshot is assembled in this
+     * JVM, or fails if no snapshot was initiated.
      */
-    public synchronized void startSnapshot() {
-        if (activeSnapshot != null) {
-            activeSnapshot.initiate();
+    public CompletableFuture<SnapshotReport> startSnapshot() {
+        Snapshot snapshot = activeSnapshot;
+        if (snapshot == null) {
+            logger.warn("No snapshot strategy set.");
+            return CompletableFuture.failedFuture(new IllegalStateException("No snapshot strategy set"));
+        }
+
+        SnapshotId snapshotId;
+        if (!snapshot.requiresStateLock()) {
+            snapshotId = snapshot.initiate();
         } else {
-            log("No snapshot strategy set.");
+            stateLock.writeLock().lock();
+            try {
+                snapshotId = snapshot.initiate();
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+        }
+
+        if (snapshotId == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Snapshot was not initiated on Node " + getId()));
+        }
+        return SnapshotCompletions.shared().await(snapshotId);
+    }
+
+    /**
+     * Freezes the node's state: the bitcake balance and the per-neighbor sent and received totals.
+     * Transfers update the counters in place under the shared state lock, so the copy is taken under
+     * the exclusive one; only the freeze pays for copying, once per snapshot. Snapshots that order
+     * the capture against transfers on the channels already hold the exclusive lock when they call
+     * this. Must not be called while holding the shared lock.
+     *
+     * @return Frozen state.
+     */
+    public LocalState freezeState() {
+        stateLock.writeLock().lock();
+        try {
+            return nodeModel.copyLocalState();
+        } finally {
+            stateLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Completes the future of a snapshot this node assembled and passes it to the snapshot listener, if one is set.
+     *
+     * @param snapshotId   ID of the snapshot.
+     * @param report       Assembled global result.
+     * @param elapsedNanos Time from initiation to assembly.
+     */
+    public void snapshotCompleted(SnapshotId snapshotId, SnapshotReport report, long elapsedNanos) {
+        SnapshotCompletions.shared().complete(snapshotId, report);
+        SnapshotListener listener = snapshotListener;
+        if (listener != null) {
+            listener.snapshotCompleted(snapshotId, report, elapsedNanos);
+        }
+    }
+
+    /**
+     * Returns how many transfers were rejected because the balance was too low.
+     *
+     * @return Number of rejected transfers.
+     */
+    public long getRejectedTransfers() {
+        return rejectedTransfers.sum();
+    }
+
     /**
      * Returns the ID of the node.
      *
@@ -150,13 +473,4 @@ public class NodeRuntime {
     public int getBitcake() {
         return nodeModel.getBitcake();
     }
-
-    /**
-     * Logs a message.
-     *
-     * @param msg Message to log.
-     */
-    private void log(String msg) {
-        System.out.println("[Node " + getId() + "] " + msg);
-    }
 }
\ No newline at end of file
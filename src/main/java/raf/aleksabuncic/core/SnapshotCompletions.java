@@ -0,0 +1,115 @@
+package raf.aleksabuncic.core;
+
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hands out a future per snapshot that completes when the snapshot's global state is assembled
+ * anywhere in this JVM. Snapshots can complete before anyone asks for them, so the results of the
+ * most recent ones nobody waited for are kept.
+ * <p>
+ * Some snapshots never assemble, for example when their initiator joins another epoch, and many
+ * callers never look at the future they get. A future is forgotten as soon as it fails or is
+ * cancelled, and only the most recent pending futures are kept; older ones are cancelled.
+ */
+public class SnapshotCompletions {
+    private static final SnapshotCompletions SHARED = new SnapshotCompletions();
+    private static final int COMPLETED_HISTORY = 1024;
+    private static final int PENDING_LIMIT = 1024;
+
+    private CompletableFuture<SnapshotReport> abandoned;
+    private final Map<SnapshotId, CompletableFuture<SnapshotReport>> pending = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SnapshotId, CompletableFuture<SnapshotReport>> eldest) {
+            if (size() <= PENDING_LIMIT) {
+                return false;
+            }
+            abandoned = eldest.getValue();
+            return true;
+        }
+    };
+    private final Map<SnapshotId, SnapshotReport> completed = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SnapshotId, SnapshotReport> eldest) {
+            return size() > COMPLETED_HISTORY;
+        }
+    };
+
+    /**
+     * Returns the completions shared by all runtimes of this JVM.
+     *
+     * @return Shared completions.
+     */
+    public static SnapshotCompletions shared() {
+        return SHARED;
+    }
+
+    /**
+     * Gets the future of a snapshot. Cancelling the future, or failing it with a timeout, stops
+     * tracking the snapshot.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @return Future that completes with the assembled global result.
+     */
+    public CompletableFuture<SnapshotReport> await(SnapshotId snapshotId) {
+        CompletableFuture<SnapshotReport> future;
+        CompletableFuture<SnapshotReport> dropped;
+        synchronized (this) {
+            SnapshotReport report = completed.get(snapshotId);
+            if (report != null) {
+                return CompletableFuture.completedFuture(report);
+            }
+            future = pending.get(snapshotId);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pending.put(snapshotId, future);
+            dropped = abandoned;
+            abandoned = null;
+        }
+        CompletableFuture<SnapshotReport> tracked = future;
+        tracked.whenComplete((report, error) -> {
+            if (error != null) {
+                forget(snapshotId, tracked);
+            }
+        });
+        if (dropped != null) {
+            dropped.cancel(false);
+        }
+        return tracked;
+    }
+
+    /**
+     * Completes the future of an assembled snapshot. Dependent actions run outside the lock.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @param report     Assembled global result.
+     */
+    public void complete(SnapshotId snapshotId, SnapshotReport report) {
+        CompletableFuture<SnapshotReport> future;
+        synchronized (this) {
+            future = pending.remove(snapshotId);
+            if (future == null) {
+                completed.put(snapshotId, report);
+            }
+        }
+        if (future != null) {
+            future.complete(report);
+        }
+    }
+
+    /**
+     * Stops tracking a future that failed or was cancelled.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @param future     Future to forget, if it is still the tracked one.
+     */
+    private synchronized void forget(SnapshotId snapshotId, CompletableFuture<SnapshotReport> future) {
+        pending.remove(snapshotId, future);
+    }
+}
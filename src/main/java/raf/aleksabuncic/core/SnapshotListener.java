@@ -0,0 +1,19 @@
+package raf.aleksabuncic.core;
+
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
+
+/**
+ * Receives the global result of every snapshot a node initiates, once it is assembled.
+ */
+@FunctionalInterface
+public interface SnapshotListener {
+    /**
+     * Called on the initiator when a snapshot is assembled.
+     *
+     * @param snapshotId   ID of the snapshot.
+     * @param report       Assembled global result.
+     * @param elapsedNanos Time from initiation to assembly.
+     */
+    void snapshotCompleted(SnapshotId snapshotId, SnapshotReport report, long elapsedNanos);
+}
@@ -0,0 +1,67 @@
+package raf.aleksabuncic.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class Threads {
+    private static final ThreadFactory VIRTUAL_FACTORY = lookupVirtualFactory();
+
+    private Threads() {
+    }
+
+    /**
+     * Checks whether the running JVM supports virtual threads.
+     *
+     * @return True if virtual threads are available, false otherwise.
+     */
+    public static boolean virtualThreadsAvailable() {
+        return VIRTUAL_FACTORY != null;
+    }
+
+    /**
+     * Creates an executor that starts a new thread per task.
+     * Falls back to a cached platform thread pool if virtual threads are not available.
+     *
+     * @param virtual    True to run tasks on virtual threads.
+     * @param namePrefix Prefix for platform thread names.
+     * @return Executor service.
+     */
+    public static ExecutorService newPerTaskExecutor(boolean virtual, String namePrefix) {
+        if (virtual && VIRTUAL_FACTORY != null) {
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.SECONDS, new SynchronousQueue<>(), VIRTUAL_FACTORY);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> new Thread(task, namePrefix + "-" + counter.incrementAndGet()));
+    }
+
+    /**
+     * Starts a thread running the given task.
+     *
+     * @param virtual True to start a virtual thread when available.
+     * @param name    Thread name.
+     * @param task    Task to run.
+     * @return Started thread.
+     */
+    public static Thread start(boolean virtual, String name, Runnable task) {
+        Thread thread = virtual && VIRTUAL_FACTORY != null ? VIRTUAL_FACTORY.newThread(task) : new Thread(task);
+        thread.setName(name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Looks up the virtual thread factory through reflection so that the project still builds for Java 17.
+     *
+     * @return Virtual thread factory, or null if the JVM has none.
+     */
+    private static ThreadFactory lookupVirtualFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
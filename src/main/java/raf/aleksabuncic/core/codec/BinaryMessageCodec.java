@@ -0,0 +1,295 @@
+package raf.aleksabuncic.core.codec;
+
+import raf.aleksabuncic.types.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Layout: version byte, opcode byte, varint sender id, content.
+ * The two high bits of the opcode byte select the content form: a single zigzag varint,
+ * a pair "a:b" of zigzag varints, a list "a:b:c..." of zigzag varlongs (varint count first),
+ * or a string (varint length + UTF-8).
+ * Opcode 0 is followed by the message type as a string.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    static final byte VERSION = 1;
+
+    private static final int OP_CUSTOM = 0;
+    private static final String[] TYPES = {
+            null,
+            "TRANSFER",
+            "SNAPSHOT_MARKER",
+            "SNAPSHOT_TRIGGER",
+            "CHECKPOINT_REQUEST",
+            "CHECKPOINT_ACK",
+            "SNAPSHOT_REPORT",
+            "FLOW_CREDIT"
+    };
+    private static final int STRING_CONTENT = 0x80;
+    private static final int PAIR_CONTENT = 0x40;
+    private static final int LIST_CONTENT = STRING_CONTENT | PAIR_CONTENT;
+    private static final int MAX_LIST_SIZE = 16;
+    private static final int OPCODE_MASK = 0x3F;
+
+    @Override
+    public byte[] encode(Message message) {
+        Writer out = new Writer();
+        out.writeByte(VERSION);
+
+        int opcode = opcodeOf(message.type());
+        String content = message.content() == null ? "" : message.content();
+        int separator = content.indexOf(':');
+        boolean numeric = separator < 0 && isCanonicalInt(content);
+        boolean pair = separator >= 0 && isCanonicalInt(content.substring(0, separator)) && isCanonicalInt(content.substring(separator + 1));
+        String[] list = numeric || pair || separator < 0 ? null : canonicalLongList(content);
+        out.writeByte(opcode | (numeric ? 0 : pair ? PAIR_CONTENT : list != null ? LIST_CONTENT : STRING_CONTENT));
+        if (opcode == OP_CUSTOM) {
+            out.writeString(message.type());
+        }
+        out.writeVarInt(zigzag(message.senderId()));
+        if (numeric) {
+            out.writeVarInt(zigzag(Integer.parseInt(content)));
+        } else if (pair) {
+            out.writeVarInt(zigzag(Integer.parseInt(content.substring(0, separator))));
+            out.writeVarInt(zigzag(Integer.parseInt(content.substring(separator + 1))));
+        } else if (list != null) {
+            out.writeVarInt(list.length);
+            for (String part : list) {
+                out.writeVarLong(zigzag(Long.parseLong(part)));
+            }
+        } else {
+            out.writeString(content);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] payload) throws IOException {
+        Reader in = new Reader(payload);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary message version: " + version);
+        }
+
+        int header = in.readByte();
+        int opcode = header & OPCODE_MASK;
+        String type;
+        if (opcode == OP_CUSTOM) {
+            type = in.readString();
+        } else if (opcode < TYPES.length) {
+            type = TYPES[opcode];
+        } else {
+            throw new IOException("Unknown opcode: " + opcode);
+        }
+
+        int senderId = unzigzag(in.readVarInt());
+        String content;
+        if ((header & LIST_CONTENT) == LIST_CONTENT) {
+            int count = in.readVarInt();
+            if (count < 0 || count > MAX_LIST_SIZE) {
+                throw new IOException("Invalid list size: " + count);
+            }
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    list.append(':');
+                }
+                list.append(unzigzag(in.readVarLong()));
+            }
+            content = list.toString();
+        } else if ((header & STRING_CONTENT) != 0) {
+            content = in.readString();
+        } else if ((header & PAIR_CONTENT) != 0) {
+            content = unzigzag(in.readVarInt()) + ":" + unzigzag(in.readVarInt());
+        } else {
+            content = String.valueOf(unzigzag(in.readVarInt()));
+        }
+        return new Message(type, senderId, content);
+    }
+
+    /**
+     * Maps a message type to its opcode.
+     *
+     * @param type Message type.
+     * @return Opcode, or 0 for types without a dedicated opcode.
+     */
+    private static int opcodeOf(String type) {
+        for (int i = 1; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return OP_CUSTOM;
+    }
+
+    /**
+     * Splits ":"-separated content into parts if every part is a canonical long.
+     *
+     * @param content Content to split.
+     * @return Parts, or null if the content cannot be sent as a list.
+     */
+    private static String[] canonicalLongList(String content) {
+        String[] parts = content.split(":", -1);
+        if (parts.length > MAX_LIST_SIZE) {
+            return null;
+        }
+        for (String part : parts) {
+            if (!isCanonicalLong(part)) {
+                return null;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Checks if the content is an int in the exact form Integer.toString would produce,
+     * so that it survives a numeric round trip unchanged.
+     *
+     * @param content Content to check.
+     * @return True if the content can be sent as a varint.
+     */
+    private static boolean isCanonicalInt(String content) {
+        if (!isCanonicalLong(content) || content.length() > 11) {
+            return false;
+        }
+        long value = Long.parseLong(content);
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Checks if the content is a long in the exact form Long.toString would produce.
+     *
+     * @param content Content to check.
+     * @return True if the content can be sent as a varlong.
+     */
+    private static boolean isCanonicalLong(String content) {
+        int length = content.length();
+        if (length == 0 || length > 20) {
+            return false;
+        }
+        int start = content.charAt(0) == '-' ? 1 : 0;
+        if (start == length || (content.charAt(start) == '0' && length > start + 1) || (start == 1 && content.charAt(1) == '0')) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = content.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        try {
+            Long.parseLong(content);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[16];
+        private int size = 0;
+
+        private void writeByte(int value) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position = 0;
+
+        private Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= buffer.length) {
+                throw new IOException("Truncated binary message");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > buffer.length - position) {
+                throw new IOException("Invalid string length: " + length);
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package raf.aleksabuncic.core.codec;
+
+import raf.aleksabuncic.types.Message;
+
+import java.io.*;
+
+public class JavaSerializationCodec implements MessageCodec {
+    static final byte STREAM_MAGIC_FIRST_BYTE = (byte) 0xAC;
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter(Message.class.getName() + ";java.lang.String;!*");
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a serialized Message. The stream may only contain a Message and its strings, so no
+     * other class is ever instantiated from network input.
+     *
+     * @param payload Encoded bytes.
+     * @return Decoded message.
+     * @throws IOException If the payload is not a serialized Message.
+     */
+    @Override
+    public Message decode(byte[] payload) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            in.setObjectInputFilter(FILTER);
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid message payload", e);
+        }
+    }
+}
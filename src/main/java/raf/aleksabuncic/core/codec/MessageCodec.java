@@ -0,0 +1,25 @@
+package raf.aleksabuncic.core.codec;
+
+import raf.aleksabuncic.types.Message;
+
+import java.io.IOException;
+
+public interface MessageCodec {
+    /**
+     * Encodes a message into a frame payload.
+     *
+     * @param message Message to encode.
+     * @return Encoded bytes.
+     * @throws IOException If the message cannot be encoded.
+     */
+    byte[] encode(Message message) throws IOException;
+
+    /**
+     * Decodes a frame payload into a message.
+     *
+     * @param payload Encoded bytes.
+     * @return Decoded message.
+     * @throws IOException If the payload is not a valid message for this codec.
+     */
+    Message decode(byte[] payload) throws IOException;
+}
@@ -0,0 +1,55 @@
+package raf.aleksabuncic.core.codec;
+
+import raf.aleksabuncic.types.Message;
+
+import java.io.IOException;
+
+public final class MessageCodecs {
+    public static final MessageCodec BINARY = new BinaryMessageCodec();
+    public static final MessageCodec JAVA = new JavaSerializationCodec();
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Resolves a codec by its configuration name.
+     *
+     * @param name "binary", "mixed" (binary, but Java frames are accepted) or "java".
+     * @return Codec for the name.
+     */
+    public static MessageCodec forName(String name) {
+        if (name == null || name.equalsIgnoreCase("binary") || name.equalsIgnoreCase("mixed")) {
+            return BINARY;
+        }
+        if (name.equalsIgnoreCase("java")) {
+            return JAVA;
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    /**
+     * Decodes a payload, detecting its codec from the first byte. Java serialization frames are
+     * only accepted if the receiving node allows them, which lets binary and Java nodes talk to
+     * each other in mixed clusters without exposing binary-only nodes to deserialization.
+     *
+     * @param payload    Encoded bytes.
+     * @param acceptJava True if Java serialization frames may be decoded.
+     * @return Decoded message.
+     * @throws IOException If the payload matches no accepted codec.
+     */
+    public static Message decode(byte[] payload, boolean acceptJava) throws IOException {
+        if (payload.length == 0) {
+            throw new IOException("Empty message payload");
+        }
+        return switch (payload[0]) {
+            case BinaryMessageCodec.VERSION -> BINARY.decode(payload);
+            case JavaSerializationCodec.STREAM_MAGIC_FIRST_BYTE -> {
+                if (!acceptJava) {
+                    throw new IOException("Java serialization frames are not accepted with the binary codec");
+                }
+                yield JAVA.decode(payload);
+            }
+            default -> throw new IOException("Unknown message encoding: " + payload[0]);
+        };
+    }
+}
@@ -1,55 +1,202 @@
 package raf.aleksabuncic.core.handler;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import raf.aleksabuncic.types.Node;
+import raf.aleksabuncic.types.NodeSettings;
+import raf.aleksabuncic.types.SimulationSettings;
+import raf.aleksabuncic.types.Topology;
+import raf.aleksabuncic.types.TopologySettings;
+import raf.aleksabuncic.types.WorkloadSettings;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class ConfigHandler {
     public static class ConfigResult {
         public String snapshotType;
         public Map<Integer, Node> allNodes = new HashMap<>();
+        public long totalBitcakes;
+        public Topology topology;
+        public WorkloadSettings workload;
+        public SimulationSettings simulation;
     }
 
     /**
-     * Loads configuration from a JSON file.
+     * Loads configuration from a JSON file on the classpath, or from the file system if there is no
+     * such resource. The file is read as a token stream, so only one node entry is held as parsed
+     * JSON at a time. Nodes come from an explicit "nodeList" or are generated from a "topology" block.
+     * Nodes without their own "settings" block share one settings object.
      *
      * @param resourcePath Path to JSON file.
      * @return ConfigResult object.
      */
     public static ConfigResult load(String resourcePath) {
         ConfigResult result = new ConfigResult();
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-
-            InputStream is = ConfigHandler.class.getClassLoader().getResourceAsStream(resourcePath);
-            if (is == null) {
-                throw new FileNotFoundException("Resource not found: " + resourcePath);
+        ObjectMapper mapper = new ObjectMapper();
+        try (InputStream is = open(resourcePath); JsonParser parser = mapper.getFactory().createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Configuration must be a JSON object: " + resourcePath);
             }
 
-            JsonNode root = mapper.readTree(is);
-            result.snapshotType = root.get("snapshotType").asText();
-
-            for (JsonNode nodeEntry : root.get("nodeList")) {
-                int id = nodeEntry.get("id").asInt();
-                int port = nodeEntry.get("port").asInt();
-                int bitcake = nodeEntry.get("bitcake").asInt();
-                ArrayList<Integer> neighbors = new ArrayList<>();
-                for (JsonNode n : nodeEntry.get("neighbors")) {
-                    neighbors.add(n.asInt());
+            JsonNode defaultSettings = null;
+            JsonNode topologyBlock = null;
+            List<Node> nodes = new ArrayList<>();
+            Map<Integer, JsonNode> nodeSettings = new HashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "snapshotType" -> result.snapshotType = parser.getText();
+                    case "settings" -> defaultSettings = parser.readValueAsTree();
+                    case "workload" -> result.workload = mapper.readerForUpdating(new WorkloadSettings()).readValue(parser);
+                    case "simulation" -> result.simulation = mapper.readerForUpdating(new SimulationSettings()).readValue(parser);
+                    case "topology" -> topologyBlock = parser.readValueAsTree();
+                    case "nodeList" -> readNodeList(parser, nodes, nodeSettings);
+                    default -> parser.skipChildren();
                 }
+            }
+
+            if (!nodes.isEmpty() && topologyBlock != null) {
+                System.out.println("Configuration has both nodeList and topology, using nodeList.");
+            } else if (topologyBlock != null) {
+                generateNodes(mapper.readerForUpdating(new TopologySettings()).readValue(topologyBlock), nodes);
+            }
 
-                Node node = new Node(id, port, bitcake, neighbors);
-                result.allNodes.put(id, node);
+            NodeSettings shared = readSettings(mapper, defaultSettings, null);
+            for (Node node : nodes) {
+                JsonNode own = nodeSettings.get(node.getId());
+                node.setSettings(own == null ? shared : readSettings(mapper, defaultSettings, own));
+                result.allNodes.put(node.getId(), node);
+                result.totalBitcakes += node.getBitcake();
             }
 
+            result.topology = Topology.of(result.allNodes);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the node entries one at a time from the "nodeList" array.
+     *
+     * @param parser       Parser positioned at the start of the array.
+     * @param nodes        List to add the nodes to.
+     * @param nodeSettings Map to add node-level settings blocks to, by node ID.
+     * @throws IOException If an entry is malformed.
+     */
+    private static void readNodeList(JsonParser parser, List<Node> nodes, Map<Integer, JsonNode> nodeSettings) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("nodeList must be an array");
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            int id = 0;
+            int port = 0;
+            int bitcake = 0;
+            int[] neighbors = new int[0];
+            JsonNode settings = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "id" -> id = parser.getIntValue();
+                    case "port" -> port = parser.getIntValue();
+                    case "bitcake" -> bitcake = parser.getIntValue();
+                    case "neighbors" -> neighbors = readIntArray(parser);
+                    case "settings" -> settings = parser.readValueAsTree();
+                    default -> parser.skipChildren();
+                }
+            }
+            nodes.add(new Node(id, port, bitcake, neighbors));
+            if (settings != null) {
+                nodeSettings.put(id, settings);
+            }
+        }
+    }
+
+    /**
+     * Reads an array of ints into an exactly sized array.
+     *
+     * @param parser Parser positioned at the start of the array.
+     * @return Values of the array.
+     * @throws IOException If the JSON cannot be read.
+     */
+    private static int[] readIntArray(JsonParser parser) throws IOException {
+        int[] values = new int[8];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = parser.getIntValue();
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Creates the nodes of a generated topology. Node IDs and ports are consecutive from the
+     * configured first ID and port base, and every node starts with the same balance.
+     *
+     * @param settings Topology block.
+     * @param nodes    List to add the nodes to.
+     */
+    private static void generateNodes(TopologySettings settings, List<Node> nodes) {
+        int[][] adjacency = TopologyGenerator.generate(settings);
+        for (int i = 0; i < adjacency.length; i++) {
+            int[] neighbors = adjacency[i];
+            for (int k = 0; k < neighbors.length; k++) {
+                neighbors[k] += settings.getFirstId();
+            }
+            nodes.add(new Node(settings.getFirstId() + i, settings.getPortBase() + i, settings.getBitcake(), neighbors));
+        }
+        System.out.println("Generated " + settings.getType() + " topology with " + adjacency.length + " nodes.");
+    }
+
+    /**
+     * Opens a configuration from the classpath, falling back to the file system.
+     *
+     * @param resourcePath Classpath resource or file path.
+     * @return Open stream.
+     * @throws IOException If neither exists.
+     */
+    private static InputStream open(String resourcePath) throws IOException {
+        InputStream is = ConfigHandler.class.getClassLoader().getResourceAsStream(resourcePath);
+        if (is != null) {
+            return is;
+        }
+        Path path = Paths.get(resourcePath);
+        if (Files.isRegularFile(path)) {
+            return Files.newInputStream(path);
+        }
+        throw new FileNotFoundException("Resource not found: " + resourcePath);
+    }
+
+    /**
+     * Builds node settings from the global settings block, overridden by the node's own block.
+     *
+     * @param mapper           Object mapper to use.
+     * @param defaultSettings  Top-level "settings" block, may be null.
+     * @param nodeSettings     Node-level "settings" block, may be null.
+     * @return Merged settings.
+     * @throws IOException If a settings block is malformed.
+     */
+    private static NodeSettings readSettings(ObjectMapper mapper, JsonNode defaultSettings, JsonNode nodeSettings) throws IOException {
+        NodeSettings settings = new NodeSettings();
+        if (defaultSettings != null) {
+            mapper.readerForUpdating(settings).readValue(defaultSettings);
+        }
+        if (nodeSettings != null) {
+            mapper.readerForUpdating(settings).readValue(nodeSettings);
+        }
+        return settings;
+    }
+}
@@ -1,46 +1,58 @@
 package raf.aleksabuncic.core.handler;
 
 import raf.aleksabuncic.core.NodeRuntime;
-import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.core.log.NodeLogger;
 
-import java.io.ObjectInputStream;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
 
 public class ConnectionHandler implements Runnable {
     private final NodeRuntime node;
+    private final NodeLogger logger;
     private final int port;
+    private final CompletableFuture<Void> listening;
+    private final boolean acceptJava;
 
-    public ConnectionHandler(NodeRuntime node, int port) {
+    public ConnectionHandler(NodeRuntime node, int port, CompletableFuture<Void> listening) {
         this.node = node;
+        this.logger = node.getLogger();
         this.port = port;
+        this.listening = listening;
+        this.acceptJava = node.getNodeModel().getSettings().isJavaCodecAccepted();
     }
 
     @Override
     public void run() {
         try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("[Node " + node.getId() + "] Listening on port " + port);
+            logger.info("Listening on port {}", port);
+            listening.complete(null);
             while (true) {
                 Socket socket = serverSocket.accept();
-                new Thread(() -> handle(socket)).start();
+                node.getExecutor().execute(() -> handle(socket));
             }
         } catch (Exception e) {
-            System.err.println("[Node " + node.getId() + "] Server error:");
-            e.printStackTrace();
+            listening.completeExceptionally(e);
+            logger.error("Server error: {}", e);
         }
     }
 
     /**
-     * Handles a single connection.
+     * Handles a single connection, reading frames until the peer closes it.
      *
      * @param socket Socket to handle.
      */
     private void handle(Socket socket) {
-        try (ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            Message msg = (Message) in.readObject();
-            node.handleMessage(msg);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            int frameSize;
+            while ((frameSize = MessageFrames.readFrame(in, acceptJava, node::handleMessage)) >= 0) {
+                // Keep reading frames until the peer closes the connection.
+                node.getMetrics().bytesReceived(frameSize);
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.warn("Closing connection after read error: {}", e);
         }
     }
 }
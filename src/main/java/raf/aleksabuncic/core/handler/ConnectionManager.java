@@ -0,0 +1,178 @@
+package raf.aleksabuncic.core.handler;
+
+import raf.aleksabuncic.core.codec.MessageCodec;
+import raf.aleksabuncic.core.codec.MessageCodecs;
+import raf.aleksabuncic.core.metrics.NodeMetrics;
+import raf.aleksabuncic.core.transport.InFlightMessages;
+import raf.aleksabuncic.core.transport.UndeliveredHandler;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.NeighborIndex;
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+public class ConnectionManager {
+    private final NeighborIndex neighbors;
+    private final OutboundChannel[] channels;
+    private final Executor executor;
+    private final long batchWindowNanos;
+    private final int maxBatchSize;
+    private final NodeMetrics metrics;
+    private final UndeliveredHandler undelivered;
+
+    public ConnectionManager(String host, NeighborIndex neighbors, NodeSettings settings, Executor executor,
+                             NodeMetrics metrics, UndeliveredHandler undelivered) {
+        MessageCodec codec = MessageCodecs.forName(settings.getCodec());
+        this.executor = executor;
+        this.metrics = metrics;
+        this.undelivered = undelivered;
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, settings.getBatchWindowMicros()));
+        this.maxBatchSize = Math.max(1, settings.getMaxBatchSize());
+        this.neighbors = neighbors;
+        this.channels = new OutboundChannel[neighbors.size()];
+        for (int i = 0; i < channels.length; i++) {
+            if (neighbors.portAt(i) >= 0) {
+                channels[i] = new OutboundChannel(neighbors.idAt(i), new Sender(host, neighbors.portAt(i), codec));
+            }
+        }
+    }
+
+    /**
+     * Queues a message for a neighbor. The message is written later by the channel's flush task,
+     * together with other queued messages if batching is configured, so this never blocks on the
+     * network and delivery failures are passed to the undelivered handler. Messages queued for the
+     * same neighbor are written in call order.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param message    Message to send.
+     * @throws IOException If the neighbor is unknown.
+     */
+    public void send(int neighborId, Message message) throws IOException {
+        int index = neighbors.indexOf(neighborId);
+        OutboundChannel channel = index < 0 ? null : channels[index];
+        if (channel == null) {
+            throw new IOException("No channel to Node " + neighborId);
+        }
+        channel.enqueue(message);
+    }
+
+    /**
+     * Closes all neighbor channels.
+     */
+    public void closeAll() {
+        for (OutboundChannel channel : channels) {
+            if (channel != null) {
+                channel.sender.close();
+            }
+        }
+    }
+
+    private record Pending(Message message, long enqueuedNanos) {
+    }
+
+    private final class OutboundChannel {
+        private final int neighborId;
+        private final Sender sender;
+        private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicReference<Thread> flusher = new AtomicReference<>();
+
+        private OutboundChannel(int neighborId, Sender sender) {
+            this.neighborId = neighborId;
+            this.sender = sender;
+        }
+
+        /**
+         * Queues a message and makes sure a flush task is running for this channel.
+         *
+         * @param message Message to queue.
+         */
+        private void enqueue(Message message) {
+            queue.add(new Pending(message, System.nanoTime()));
+            if (queued.incrementAndGet() >= maxBatchSize) {
+                Thread waiting = flusher.get();
+                if (waiting != null) {
+                    LockSupport.unpark(waiting);
+                }
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::flushLoop);
+            }
+        }
+
+        /**
+         * Flushes batches until the queue is empty. Only one flush loop runs per channel at a time,
+         * which keeps the channel FIFO. A loop that is finishing can overlap with the next one, so
+         * it only clears the flusher if it has not been replaced yet.
+         */
+        private void flushLoop() {
+            Thread current = Thread.currentThread();
+            flusher.set(current);
+            try {
+                do {
+                    while (!queue.isEmpty()) {
+                        awaitBatch();
+                        flushBatch();
+                    }
+                    scheduled.set(false);
+                } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+            } finally {
+                flusher.compareAndSet(current, null);
+            }
+        }
+
+        /**
+         * Waits until the batch is full or the window since the oldest queued message has passed.
+         */
+        private void awaitBatch() {
+            Pending head = queue.peek();
+            if (head == null || batchWindowNanos == 0) {
+                return;
+            }
+            long deadline = head.enqueuedNanos() + batchWindowNanos;
+            long remaining;
+            while (queued.get() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+
+        /**
+         * Writes up to one batch of queued messages as a single frame.
+         */
+        private void flushBatch() {
+            List<Message> batch = new ArrayList<>(Math.min(maxBatchSize, queued.get()));
+            long oldest = 0;
+            Pending pending;
+            while (batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+                if (batch.isEmpty()) {
+                    oldest = pending.enqueuedNanos();
+                }
+                batch.add(pending.message());
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            queued.addAndGet(-batch.size());
+
+            try {
+                metrics.bytesSent(sender.sendBatch(batch));
+                metrics.batchFlushed(batch.size(), System.nanoTime() - oldest);
+            } catch (IOException e) {
+                InFlightMessages.shared().settled(batch.size());
+                metrics.sendFailed(neighborId);
+                undelivered.undelivered(neighborId, batch);
+            }
+        }
+    }
+}
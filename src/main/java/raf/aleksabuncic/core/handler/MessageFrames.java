@@ -0,0 +1,121 @@
+package raf.aleksabuncic.core.handler;
+
+import raf.aleksabuncic.core.codec.MessageCodec;
+import raf.aleksabuncic.core.codec.MessageCodecs;
+import raf.aleksabuncic.types.Message;
+
+import java.io.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+public final class MessageFrames {
+    static final byte BATCH_TAG = (byte) 0xB0;
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private MessageFrames() {
+    }
+
+    /**
+     * Writes a message as a single length-prefixed frame.
+     *
+     * @param out     Stream to write to.
+     * @param message Message to write.
+     * @param codec   Codec used to encode the message.
+     * @return Number of bytes written, including the length prefix.
+     * @throws IOException If the message could not be written.
+     */
+    public static int writeFrame(DataOutputStream out, Message message, MessageCodec codec) throws IOException {
+        byte[] payload = codec.encode(message);
+        out.writeInt(payload.length);
+        out.write(payload);
+        return Integer.BYTES + payload.length;
+    }
+
+    /**
+     * Writes several messages as one batched frame: a batch tag, the message count,
+     * then each encoded message with its own length prefix.
+     *
+     * @param out      Stream to write to.
+     * @param messages Messages to write, in order.
+     * @param codec    Codec used to encode the messages.
+     * @return Number of bytes written, including the length prefix.
+     * @throws IOException If the batch could not be written.
+     */
+    public static int writeBatchFrame(DataOutputStream out, List<Message> messages, MessageCodec codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * messages.size());
+        DataOutputStream batch = new DataOutputStream(bytes);
+        batch.writeByte(BATCH_TAG);
+        batch.writeInt(messages.size());
+        for (Message message : messages) {
+            byte[] payload = codec.encode(message);
+            batch.writeInt(payload.length);
+            batch.write(payload);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        return Integer.BYTES + bytes.size();
+    }
+
+    /**
+     * Reads the next length-prefixed frame from the stream and passes its messages on in order.
+     *
+     * @param in         Stream to read from.
+     * @param acceptJava True if Java serialization frames may be decoded.
+     * @param sink       Receiver of decoded messages.
+     * @return Number of bytes read, including the length prefix, or -1 if the peer closed the stream between frames.
+     * @throws IOException If the frame could not be read or decoded.
+     */
+    public static int readFrame(DataInputStream in, boolean acceptJava, Consumer<Message> sink) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return -1;
+        }
+        checkFrameLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        decode(payload, acceptJava, sink);
+        return Integer.BYTES + length;
+    }
+
+    /**
+     * Rejects frame lengths that are negative or larger than any frame a node writes, before a
+     * buffer of that size is allocated for them.
+     *
+     * @param length Length from the frame prefix.
+     * @throws IOException If the length is not valid.
+     */
+    static void checkFrameLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Decodes a frame payload, single or batched, written by any supported codec.
+     *
+     * @param payload    Frame payload.
+     * @param acceptJava True if Java serialization frames may be decoded.
+     * @param sink       Receiver of decoded messages, called in frame order.
+     * @throws IOException If the payload is not a valid frame.
+     */
+    public static void decode(byte[] payload, boolean acceptJava, Consumer<Message> sink) throws IOException {
+        if (payload.length == 0 || payload[0] != BATCH_TAG) {
+            sink.accept(MessageCodecs.decode(payload, acceptJava));
+            return;
+        }
+
+        DataInputStream batch = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+        int count = batch.readInt();
+        for (int i = 0; i < count; i++) {
+            int length = batch.readInt();
+            if (length < 0 || length > batch.available()) {
+                throw new IOException("Invalid batched message length: " + length);
+            }
+            byte[] message = new byte[length];
+            batch.readFully(message);
+            sink.accept(MessageCodecs.decode(message, acceptJava));
+        }
+    }
+}
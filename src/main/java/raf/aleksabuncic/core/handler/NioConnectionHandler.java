@@ -0,0 +1,303 @@
+package raf.aleksabuncic.core.handler;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.log.NodeLogger;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioConnectionHandler implements Runnable {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int DRAIN_BATCH = 64;
+
+    private final NodeRuntime node;
+    private final NodeLogger logger;
+    private final int port;
+    private final int maxPendingPerConnection;
+    private final IoLoop[] loops;
+    private final ExecutorService workers;
+    private final CompletableFuture<Void> listening;
+    private final boolean acceptJava;
+    private int nextLoop = 0;
+
+    public NioConnectionHandler(NodeRuntime node, int port, NodeSettings settings, CompletableFuture<Void> listening) {
+        this.node = node;
+        this.logger = node.getLogger();
+        this.port = port;
+        this.listening = listening;
+        this.acceptJava = node.getNodeModel().getSettings().isJavaCodecAccepted();
+        this.maxPendingPerConnection = Math.max(1, settings.getMaxPendingPerConnection());
+        this.loops = new IoLoop[Math.max(1, settings.getIoThreads())];
+        // Each connection has at most one drain task queued, so the queue is bounded by the number of
+        // connections and never rejects; a connection that gets too far ahead pauses its own reads.
+        this.workers = Executors.newFixedThreadPool(Math.max(1, settings.getWorkerThreads()));
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new IoLoop(Selector.open());
+            }
+            server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+            for (int i = 1; i < loops.length; i++) {
+                new Thread(loops[i], "nio-io-" + node.getId() + "-" + i).start();
+            }
+
+            logger.info("Listening on port {} (nio, {} I/O threads)", port, loops.length);
+            listening.complete(null);
+            loops[0].run();
+        } catch (Exception e) {
+            listening.completeExceptionally(e);
+            logger.error("Server error: {}", e);
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Accepts all pending connections and spreads them over the I/O loops.
+     *
+     * @param server Server channel with pending connections.
+     * @throws IOException If accepting fails.
+     */
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            IoLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            loop.assign(channel);
+        }
+    }
+
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+        private IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands a freshly accepted channel to this loop.
+         *
+         * @param channel Channel to register.
+         */
+        private void assign(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    registerPending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                        } else if (key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("I/O loop error: {}", e);
+            }
+        }
+
+        /**
+         * Registers channels assigned since the last select.
+         *
+         * @throws IOException If registration fails.
+         */
+        private void registerPending() throws IOException {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                Connection connection = new Connection(channel, this);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private final Queue<Message> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean paused = false;
+        private SelectionKey key;
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        private Connection(SocketChannel channel, IoLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        /**
+         * Reads whatever is available and decodes every complete frame.
+         */
+        private void read() {
+            try {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                decodeFrames();
+                buffer.compact();
+            } catch (Exception e) {
+                logger.warn("Closing connection after read error: {}", e);
+                close();
+            }
+        }
+
+        /**
+         * Decodes complete length-prefixed frames from the buffer, leaving a partial frame in place.
+         *
+         * @throws IOException If a frame is malformed.
+         */
+        private void decodeFrames() throws IOException {
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt(buffer.position());
+                MessageFrames.checkFrameLength(length);
+                if (buffer.remaining() < Integer.BYTES + length) {
+                    ensureCapacity(Integer.BYTES + length);
+                    return;
+                }
+                buffer.position(buffer.position() + Integer.BYTES);
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                node.getMetrics().bytesReceived(Integer.BYTES + length);
+                MessageFrames.decode(payload, acceptJava, this::enqueue);
+            }
+        }
+
+        /**
+         * Grows the read buffer so that a frame of the given size fits.
+         *
+         * @param frameSize Size of the frame including its length prefix.
+         */
+        private void ensureCapacity(int frameSize) {
+            if (buffer.capacity() >= frameSize) {
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(frameSize);
+            larger.put(buffer);
+            larger.flip();
+            buffer = larger;
+        }
+
+        /**
+         * Queues a decoded message and pauses reading if this connection is too far ahead of the workers.
+         *
+         * @param message Decoded message.
+         */
+        private void enqueue(Message message) {
+            inbox.add(message);
+            if (pending.incrementAndGet() >= maxPendingPerConnection && !paused) {
+                pause();
+            }
+            schedule();
+        }
+
+        /**
+         * Stops reading from the connection. The backlog is checked again after the flag is set,
+         * since a worker that caught up just before would not have seen the pause.
+         */
+        private synchronized void pause() {
+            paused = true;
+            key.interestOps(0);
+            if (pending.get() <= maxPendingPerConnection / 2) {
+                resume();
+            }
+        }
+
+        /**
+         * Submits a drain task unless one is already queued or running, keeping messages in arrival order.
+         */
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        /**
+         * Hands queued messages to the node in arrival order.
+         */
+        private void drain() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Message message = inbox.poll();
+                if (message == null) {
+                    break;
+                }
+                try {
+                    node.handleMessage(message);
+                } catch (Exception e) {
+                    logger.error("Failed to handle {}: {}", message, e);
+                }
+                if (pending.decrementAndGet() <= maxPendingPerConnection / 2 && paused) {
+                    resume();
+                }
+            }
+            scheduled.set(false);
+            if (!inbox.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Re-enables reading once the workers have caught up.
+         */
+        private synchronized void resume() {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+                loop.selector.wakeup();
+            }
+        }
+
+        /**
+         * Closes the connection.
+         */
+        private void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
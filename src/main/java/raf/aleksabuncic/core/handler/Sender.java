@@ -1,21 +1,114 @@
 package raf.aleksabuncic.core.handler;
 
+import raf.aleksabuncic.core.codec.MessageCodec;
+import raf.aleksabuncic.core.codec.MessageCodecs;
 import raf.aleksabuncic.types.Message;
 
-import java.io.ObjectOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Sender {
+    private final String host;
+    private final int port;
+    private final MessageCodec codec;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Socket socket;
+    private DataOutputStream out;
+
+    public Sender(String host, int port, MessageCodec codec) {
+        this.host = host;
+        this.port = port;
+        this.codec = codec;
+    }
+
+    /**
+     * Sends a message over the long-lived connection, opening it lazily.
+     *
+     * @param message Message to send.
+     * @return Number of bytes written.
+     * @throws IOException If the message could not be written; the connection is closed.
+     */
+    public int send(Message message) throws IOException {
+        return sendBatch(List.of(message));
+    }
+
+    /**
+     * Sends several messages over the long-lived connection as one frame with a single flush.
+     * A failed write is not retried, because part of the frame may already have reached the peer
+     * and a resent TRANSFER would be applied twice. The connection is closed instead, so the next
+     * send reconnects, and the caller decides what to do with the batch.
+     *
+     * @param messages Messages to send, in order.
+     * @return Number of bytes written.
+     * @throws IOException If the messages could not be written; the connection is closed.
+     */
+    public int sendBatch(List<Message> messages) throws IOException {
+        lock.lock();
+        try {
+            try {
+                return write(messages);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the underlying connection. The next send will reconnect.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            socket = null;
+            out = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the messages as a single frame, connecting first if needed.
+     *
+     * @param messages Messages to write.
+     * @return Number of bytes written.
+     * @throws IOException If the write fails.
+     */
+    private int write(List<Message> messages) throws IOException {
+        if (socket == null) {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+        int written = messages.size() == 1
+                ? MessageFrames.writeFrame(out, messages.get(0), codec)
+                : MessageFrames.writeBatchFrame(out, messages, codec);
+        out.flush();
+        return written;
+    }
+
     /**
-     * Sends a message to a remote node.
+     * Sends a message to a remote node over a one-off connection.
      *
      * @param host    Remote node hostname or IP address.
      * @param port    Remote node port.
      * @param message Message to send.
      */
     public static void sendMessage(String host, int port, Message message) {
-        try (Socket socket = new Socket(host, port); ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
-            out.writeObject(message);
+        try (Socket socket = new Socket(host, port); DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            MessageFrames.writeFrame(out, message, MessageCodecs.BINARY);
             out.flush();
         } catch (Exception e) {
             System.err.println("Failed to send message to " + host + ":" + port);
@@ -0,0 +1,288 @@
+package raf.aleksabuncic.core.handler;
+
+import raf.aleksabuncic.types.TopologySettings;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Generates undirected topologies for large configurations. The result is an adjacency array
+ * indexed by position (node ID minus the first ID), with every row sorted and free of duplicates
+ * and self-loops. Random topologies are derived only from the seed, so the same settings always
+ * give the same graph.
+ */
+public final class TopologyGenerator {
+    private static final int PAIRING_ATTEMPTS = 64;
+
+    private TopologyGenerator() {
+    }
+
+    /**
+     * Generates the topology described by the settings.
+     *
+     * @param settings Topology block of the configuration.
+     * @return Neighbor positions of every node.
+     */
+    public static int[][] generate(TopologySettings settings) {
+        int n = settings.getNodes();
+        if (n <= 0) {
+            throw new IllegalArgumentException("Topology needs at least one node, got " + n);
+        }
+        return switch (settings.getType().toLowerCase()) {
+            case "ring" -> ring(n);
+            case "grid" -> grid(n, settings.getWidth(), settings.isTorus());
+            case "hypercube" -> hypercube(n);
+            case "random-regular" -> randomRegular(n, settings.getDegree(), settings.getSeed());
+            case "scale-free" -> scaleFree(n, settings.getEdgesPerNode(), settings.getSeed());
+            default -> throw new IllegalArgumentException("Unknown topology type: " + settings.getType());
+        };
+    }
+
+    /**
+     * Connects every node to the next one, closing the ring.
+     *
+     * @param n Number of nodes.
+     * @return Adjacency.
+     */
+    static int[][] ring(int n) {
+        EdgeList edges = new EdgeList(n, n);
+        for (int i = 0; i < n; i++) {
+            edges.add(i, (i + 1) % n);
+        }
+        return edges.toAdjacency();
+    }
+
+    /**
+     * Lays the nodes out row by row and connects horizontal and vertical neighbors.
+     *
+     * @param n     Number of nodes.
+     * @param width Row length, or 0 for a square-ish grid.
+     * @param torus True to wrap rows and columns around; needs complete rows.
+     * @return Adjacency.
+     */
+    static int[][] grid(int n, int width, boolean torus) {
+        int w = width > 0 ? width : (int) Math.ceil(Math.sqrt(n));
+        int rows = (n + w - 1) / w;
+        if (torus && n % w != 0) {
+            throw new IllegalArgumentException("A torus needs complete rows: " + n + " nodes do not fill rows of " + w);
+        }
+        EdgeList edges = new EdgeList(n, 2L * n);
+        for (int i = 0; i < n; i++) {
+            int row = i / w;
+            int column = i % w;
+            if (column + 1 < w && i + 1 < n) {
+                edges.add(i, i + 1);
+            } else if (torus) {
+                edges.add(i, row * w);
+            }
+            if (i + w < n) {
+                edges.add(i, i + w);
+            } else if (torus) {
+                edges.add(i, column);
+            }
+        }
+        return edges.toAdjacency();
+    }
+
+    /**
+     * Connects nodes whose positions differ in exactly one bit.
+     *
+     * @param n Number of nodes, a power of two.
+     * @return Adjacency.
+     */
+    static int[][] hypercube(int n) {
+        if (Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("A hypercube needs a power of two nodes, got " + n);
+        }
+        int dimensions = Integer.numberOfTrailingZeros(n);
+        EdgeList edges = new EdgeList(n, (long) n * dimensions / 2);
+        for (int i = 0; i < n; i++) {
+            for (int bit = 0; bit < dimensions; bit++) {
+                int other = i ^ (1 << bit);
+                if (other > i) {
+                    edges.add(i, other);
+                }
+            }
+        }
+        return edges.toAdjacency();
+    }
+
+    /**
+     * Builds a random graph in which every node has the given degree, using the pairing model:
+     * every node gets degree stubs, and stubs are paired at random. A stub whose random partner
+     * would form a self-loop or a duplicate edge tries other partners; if none fits after a number of
+     * attempts it stays unpaired, so a few nodes may end up one edge short.
+     *
+     * @param n      Number of nodes.
+     * @param degree Degree of every node.
+     * @param seed   Random seed.
+     * @return Adjacency.
+     */
+    static int[][] randomRegular(int n, int degree, long seed) {
+        if (degree < 0 || degree >= n || ((long) n * degree) % 2 != 0) {
+            throw new IllegalArgumentException("No " + degree + "-regular graph on " + n + " nodes");
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] stubs = new int[n * degree];
+        for (int i = 0; i < stubs.length; i++) {
+            stubs[i] = i / degree;
+        }
+        int[][] chosen = new int[n][degree];
+        int[] filled = new int[n];
+        EdgeList edges = new EdgeList(n, (long) n * degree / 2);
+
+        int end = stubs.length;
+        while (end > 1) {
+            int first = stubs[--end];
+            for (int attempt = 0; attempt < PAIRING_ATTEMPTS && end > 0; attempt++) {
+                int pick = random.nextInt(end);
+                int second = stubs[pick];
+                if (second == first || contains(chosen[first], filled[first], second)) {
+                    continue;
+                }
+                stubs[pick] = stubs[--end];
+                chosen[first][filled[first]++] = second;
+                chosen[second][filled[second]++] = first;
+                edges.add(first, second);
+                break;
+            }
+        }
+        return edges.toAdjacency();
+    }
+
+    /**
+     * Builds a scale-free graph by preferential attachment (Barabasi-Albert): the first nodes form
+     * a clique, and every later node links to edgesPerNode distinct earlier nodes picked with
+     * probability proportional to their degree.
+     *
+     * @param n            Number of nodes.
+     * @param edgesPerNode Links added with every new node.
+     * @param seed         Random seed.
+     * @return Adjacency.
+     */
+    static int[][] scaleFree(int n, int edgesPerNode, long seed) {
+        if (edgesPerNode < 1) {
+            throw new IllegalArgumentException("Scale-free topology needs at least one edge per node");
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        int initial = Math.min(n, edgesPerNode + 1);
+        long edgeCount = (long) initial * (initial - 1) / 2 + (long) (n - initial) * edgesPerNode;
+        EdgeList edges = new EdgeList(n, edgeCount);
+        int[] endpoints = new int[(int) (2 * edgeCount)];
+        int endpointCount = 0;
+
+        for (int i = 0; i < initial; i++) {
+            for (int j = i + 1; j < initial; j++) {
+                edges.add(i, j);
+                endpoints[endpointCount++] = i;
+                endpoints[endpointCount++] = j;
+            }
+        }
+
+        int[] targets = new int[edgesPerNode];
+        for (int node = initial; node < n; node++) {
+            int picked = 0;
+            while (picked < edgesPerNode) {
+                int target = endpoints[random.nextInt(endpointCount)];
+                if (!contains(targets, picked, target)) {
+                    targets[picked++] = target;
+                }
+            }
+            for (int i = 0; i < picked; i++) {
+                edges.add(node, targets[i]);
+                endpoints[endpointCount++] = node;
+                endpoints[endpointCount++] = targets[i];
+            }
+        }
+        return edges.toAdjacency();
+    }
+
+    /**
+     * Checks if a value is among the first entries of an array.
+     *
+     * @param values Array to search.
+     * @param count  Number of entries in use.
+     * @param value  Value to look for.
+     * @return True if found, false otherwise.
+     */
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Undirected edges in two primitive arrays, turned into sorted adjacency rows at the end.
+     */
+    private static final class EdgeList {
+        private final int nodes;
+        private int[] from;
+        private int[] to;
+        private int size = 0;
+
+        private EdgeList(int nodes, long expected) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, expected));
+            this.nodes = nodes;
+            this.from = new int[capacity];
+            this.to = new int[capacity];
+        }
+
+        /**
+         * Adds an undirected edge. Self-loops are ignored.
+         *
+         * @param a One end.
+         * @param b Other end.
+         */
+        private void add(int a, int b) {
+            if (a == b) {
+                return;
+            }
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = a;
+            to[size] = b;
+            size++;
+        }
+
+        /**
+         * Builds the adjacency rows, sorted and with duplicate edges removed.
+         *
+         * @return Adjacency.
+         */
+        private int[][] toAdjacency() {
+            int[] degrees = new int[nodes];
+            for (int i = 0; i < size; i++) {
+                degrees[from[i]]++;
+                degrees[to[i]]++;
+            }
+            int[][] adjacency = new int[nodes][];
+            for (int i = 0; i < nodes; i++) {
+                adjacency[i] = new int[degrees[i]];
+                degrees[i] = 0;
+            }
+            for (int i = 0; i < size; i++) {
+                adjacency[from[i]][degrees[from[i]]++] = to[i];
+                adjacency[to[i]][degrees[to[i]]++] = from[i];
+            }
+            for (int i = 0; i < nodes; i++) {
+                int[] row = adjacency[i];
+                Arrays.sort(row);
+                int distinct = 0;
+                for (int j = 0; j < row.length; j++) {
+                    if (distinct == 0 || row[distinct - 1] != row[j]) {
+                        row[distinct++] = row[j];
+                    }
+                }
+                if (distinct < row.length) {
+                    adjacency[i] = Arrays.copyOf(row, distinct);
+                }
+            }
+            return adjacency;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package raf.aleksabuncic.core.log;
+
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF;
+
+    /**
+     * Parses a level from its configuration name.
+     *
+     * @param name "debug", "info", "warn", "error" or "off".
+     * @return Log level, INFO if the name is missing.
+     */
+    public static LogLevel fromName(String name) {
+        return name == null ? INFO : valueOf(name.toUpperCase());
+    }
+}
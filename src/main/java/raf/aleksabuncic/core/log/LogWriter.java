@@ -0,0 +1,142 @@
+package raf.aleksabuncic.core.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log lines from any number of threads through a bounded lock-free ring buffer, drained by
+ * one background thread. Producers claim a slot with a CAS on the tail and never block: if the
+ * buffer is full the line is dropped and counted, and the count is written once there is room.
+ */
+public class LogWriter {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int DRAIN_BATCH = 256;
+
+    private final String name;
+    private final Writer out;
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean sleeping = false;
+    private volatile boolean closed = false;
+
+    public LogWriter(String name, Writer out, int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        this.name = name;
+        this.out = out;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.drainer = new Thread(this::run, "log-writer-" + name);
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Queues a line for writing. Never blocks.
+     *
+     * @param line Line to write, without a line separator.
+     */
+    public void write(String line) {
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (closed || claimed - head.get() > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+
+        slots.set((int) claimed & mask, line);
+        if (sleeping) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    /**
+     * Writes out every queued line and stops the background thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drains the ring buffer until the writer is closed and nothing is left, flushing whenever it runs empty.
+     */
+    private void run() {
+        while (true) {
+            if (drain() > 0) {
+                continue;
+            }
+            flush();
+            if (closed && head.get() == tail.get()) {
+                return;
+            }
+            sleeping = true;
+            if (head.get() == tail.get() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Writes up to one batch of published lines in order. A claimed slot that is not published yet
+     * ends the batch, so lines are never reordered.
+     *
+     * @return Number of lines written.
+     */
+    private int drain() {
+        int written = 0;
+        long position = head.get();
+        try {
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                out.write("[log-writer " + name + "] " + lost + " log lines dropped" + System.lineSeparator());
+            }
+            while (written < DRAIN_BATCH) {
+                int slot = (int) position & mask;
+                String line = slots.get(slot);
+                if (line == null) {
+                    break;
+                }
+                slots.set(slot, null);
+                head.lazySet(++position);
+                out.write(line);
+                out.write(System.lineSeparator());
+                written++;
+            }
+        } catch (IOException e) {
+            System.err.println("Log writer " + name + " failed:");
+            e.printStackTrace();
+        }
+        return written;
+    }
+
+    /**
+     * Flushes the underlying writer.
+     */
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
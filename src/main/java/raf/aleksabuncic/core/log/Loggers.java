@@ -0,0 +1,74 @@
+package raf.aleksabuncic.core.log;
+
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class Loggers {
+    private static final String CONSOLE = "console";
+    private static final Map<String, LogWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Loggers::closeAll, "log-writers-shutdown"));
+    }
+
+    private Loggers() {
+    }
+
+    /**
+     * Returns a logger writing to the console or the log file named in the settings. All loggers
+     * with the same target share one writer, so lines of different nodes do not interleave mid-line.
+     *
+     * @param prefix   Prefix of every line, e.g. "[Node 3]".
+     * @param settings Node settings with the log level, target and buffer size.
+     * @return Logger.
+     */
+    public static NodeLogger forNode(String prefix, NodeSettings settings) {
+        return new NodeLogger(prefix, LogLevel.fromName(settings.getLogLevel()), writerFor(settings));
+    }
+
+    /**
+     * Writes every queued line and closes all writers.
+     */
+    public static void closeAll() {
+        for (LogWriter writer : WRITERS.values()) {
+            writer.close();
+        }
+        WRITERS.clear();
+    }
+
+    /**
+     * Returns the shared writer for the settings' log target.
+     *
+     * @param settings Node settings.
+     * @return Log writer.
+     */
+    private static LogWriter writerFor(NodeSettings settings) {
+        if (!"file".equalsIgnoreCase(settings.getLogTarget())) {
+            return WRITERS.computeIfAbsent(CONSOLE, key -> new LogWriter(key,
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8), settings.getLogBufferSize()));
+        }
+        Path path = Paths.get(settings.getLogFile()).toAbsolutePath().normalize();
+        return WRITERS.computeIfAbsent(path.toString(), key -> {
+            try {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                return new LogWriter(path.getFileName().toString(), out, settings.getLogBufferSize());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open log file " + path, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+package raf.aleksabuncic.core.log;
+
+/**
+ * Leveled logger of one component. The level is checked before any formatting, and the debug
+ * methods take primitive arguments, so a disabled debug call with literal templates allocates
+ * nothing. Enabled lines are formatted on the calling thread, replacing each "{}" in the template
+ * with the next argument, and handed to the asynchronous LogWriter.
+ */
+public class NodeLogger {
+    private final String prefix;
+    private final LogLevel level;
+    private final LogWriter writer;
+
+    public NodeLogger(String prefix, LogLevel level, LogWriter writer) {
+        this.prefix = prefix;
+        this.level = level;
+        this.writer = writer;
+    }
+
+    /**
+     * Checks if lines of the given level are written.
+     *
+     * @param lineLevel Level of the line.
+     * @return True if the line would be written, false otherwise.
+     */
+    public boolean isEnabled(LogLevel lineLevel) {
+        return lineLevel.compareTo(level) >= 0 && lineLevel != LogLevel.OFF;
+    }
+
+    /**
+     * Checks if debug lines are written.
+     *
+     * @return True if debug logging is on.
+     */
+    public boolean isDebugEnabled() {
+        return level == LogLevel.DEBUG;
+    }
+
+    public void debug(String message) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, message);
+        }
+    }
+
+    public void debug(String template, Object a) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, format(template, a));
+        }
+    }
+
+    public void debug(String template, long a) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, format(template, a));
+        }
+    }
+
+    public void debug(String template, long a, long b) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, format(template, a, b));
+        }
+    }
+
+    public void debug(String template, long a, Object b) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, format(template, a, b));
+        }
+    }
+
+    public void debug(String template, Object a, Object b) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, format(template, a, b));
+        }
+    }
+
+    public void debug(String template, long a, long b, Object c) {
+        if (isDebugEnabled()) {
+            publish(LogLevel.DEBUG, format(template, a, b, c));
+        }
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message);
+    }
+
+    public void info(String template, Object... args) {
+        log(LogLevel.INFO, template, args);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message);
+    }
+
+    public void warn(String template, Object... args) {
+        log(LogLevel.WARN, template, args);
+    }
+
+    public void error(String message) {
+        log(LogLevel.ERROR, message);
+    }
+
+    public void error(String template, Object... args) {
+        log(LogLevel.ERROR, template, args);
+    }
+
+    /**
+     * Writes a line if its level is enabled.
+     *
+     * @param lineLevel Level of the line.
+     * @param message   Line to write.
+     */
+    public void log(LogLevel lineLevel, String message) {
+        if (isEnabled(lineLevel)) {
+            publish(lineLevel, message);
+        }
+    }
+
+    /**
+     * Formats and writes a line if its level is enabled.
+     *
+     * @param lineLevel Level of the line.
+     * @param template  Template with a "{}" for each argument.
+     * @param args      Arguments.
+     */
+    public void log(LogLevel lineLevel, String template, Object... args) {
+        if (isEnabled(lineLevel)) {
+            publish(lineLevel, format(template, args));
+        }
+    }
+
+    /**
+     * Prefixes a line and queues it on the writer.
+     *
+     * @param lineLevel Level of the line.
+     * @param message   Formatted message.
+     */
+    private void publish(LogLevel lineLevel, String message) {
+        if (lineLevel.compareTo(LogLevel.WARN) >= 0) {
+            writer.write(prefix + " " + lineLevel + ": " + message);
+        } else {
+            writer.write(prefix + " " + message);
+        }
+    }
+
+    /**
+     * Replaces each "{}" in the template with the next argument. Placeholders without an argument are kept.
+     *
+     * @param template Template.
+     * @param args     Arguments.
+     * @return Formatted message.
+     */
+    static String format(String template, Object... args) {
+        StringBuilder out = new StringBuilder(template.length() + 16 * args.length);
+        int from = 0;
+        for (Object arg : args) {
+            int at = template.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            out.append(template, from, at).append(arg);
+            from = at + 2;
+        }
+        return out.append(template, from, template.length()).toString();
+    }
+}
@@ -0,0 +1,125 @@
+package raf.aleksabuncic.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets: every power of two is split
+ * into eight equal buckets, so a recorded value is reported with at most 12.5% relative error.
+ * Recording is one atomic increment plus two LongAdder updates. The buckets of each power of two
+ * are allocated on its first value, since recorded values usually span only a few powers of two
+ * and a node can hold many histograms.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<AtomicLongArray> segments = new AtomicReferenceArray<>(BUCKETS / SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value Value to record.
+     */
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        int bucket = bucketOf(clamped);
+        segmentOf(bucket).incrementAndGet(bucket & (SUB_BUCKETS - 1));
+        count.increment();
+        sum.add(clamped);
+        if (clamped > max.get()) {
+            max.accumulateAndGet(clamped, Math::max);
+        }
+    }
+
+    /**
+     * Summarizes the histogram. Concurrent recordings may or may not be included.
+     *
+     * @return Summary of the recorded values.
+     */
+    public HistogramSummary summarize() {
+        long total = count.sum();
+        return new HistogramSummary(total, total == 0 ? 0 : (double) sum.sum() / total,
+                percentile(50), percentile(99), percentile(99.9), max.get());
+    }
+
+    /**
+     * Gets a percentile of the recorded values, by nearest rank.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper bound of the bucket holding the percentile, capped at the maximum, or 0 if empty.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            AtomicLongArray segment = segments.get(i >>> SUB_BITS);
+            snapshot[i] = segment == null ? 0 : segment.get(i & (SUB_BUCKETS - 1));
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(max.get(), upperBoundOf(i));
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Gets the counters of the power of two a bucket belongs to, allocating them on first use.
+     *
+     * @param bucket Bucket index.
+     * @return Counters of the bucket's segment.
+     */
+    private AtomicLongArray segmentOf(int bucket) {
+        int index = bucket >>> SUB_BITS;
+        AtomicLongArray segment = segments.get(index);
+        if (segment == null && !segments.compareAndSet(index, null, segment = new AtomicLongArray(SUB_BUCKETS))) {
+            segment = segments.get(index);
+        }
+        return segment;
+    }
+
+    /**
+     * Gets the bucket a value falls into.
+     *
+     * @param value Non-negative value.
+     * @return Bucket index.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the largest value that falls into a bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Inclusive upper bound of the bucket.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,30 @@
+package raf.aleksabuncic.core.metrics;
+
+import lombok.Getter;
+
+/**
+ * Point-in-time summary of a histogram, exposed over JMX as composite data.
+ */
+@Getter
+public class HistogramSummary {
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public HistogramSummary(long count, double mean, long p50, long p99, long p999, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p99=%d p999=%d max=%d", count, mean, p50, p99, p999, max);
+    }
+}
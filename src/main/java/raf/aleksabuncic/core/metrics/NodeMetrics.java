@@ -0,0 +1,296 @@
+package raf.aleksabuncic.core.metrics;
+
+import raf.aleksabuncic.core.log.NodeLogger;
+import raf.aleksabuncic.types.NeighborIndex;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics registry of one node. Counters are LongAdders or per-neighbor atomic arrays and
+ * histograms are lock-free, so recording never blocks the message path. Per-type maps only
+ * allocate the first time a message type is seen, and snapshot histograms only the first time
+ * something is recorded in them, so idle nodes of a large system stay small.
+ */
+public class NodeMetrics implements NodeMetricsMXBean {
+    private final NeighborIndex neighbors;
+    private final Map<String, LongAdder> sent = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> received = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> handlingLatency = new ConcurrentHashMap<>();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final AtomicLongArray sendFailures;
+    private static final Histogram EMPTY = new Histogram();
+
+    private final AtomicReference<Histogram> snapshotDuration = new AtomicReference<>();
+    private final AtomicReferenceArray<Histogram> markerWait;
+    private final LongAdder recordedChannelStates = new LongAdder();
+    private final LongAdder recordedChannelAmount = new LongAdder();
+    private final AtomicLongArray throttledNanos;
+    private final LongAdder flowRejections = new LongAdder();
+    private final OutboundStats outbound = new OutboundStats();
+
+    public NodeMetrics(NeighborIndex neighbors) {
+        this.neighbors = neighbors;
+        this.sendFailures = new AtomicLongArray(neighbors.size());
+        this.throttledNanos = new AtomicLongArray(neighbors.size());
+        this.markerWait = new AtomicReferenceArray<>(neighbors.size());
+    }
+
+    /**
+     * Counts a message handed to the transport.
+     *
+     * @param type Message type.
+     */
+    public void messageSent(String type) {
+        sent.computeIfAbsent(type, t -> new LongAdder()).increment();
+    }
+
+    /**
+     * Counts a received message and records how long handling it took.
+     *
+     * @param type          Message type.
+     * @param handlingNanos Time spent in the runtime's message handler.
+     */
+    public void messageHandled(String type, long handlingNanos) {
+        received.computeIfAbsent(type, t -> new LongAdder()).increment();
+        handlingLatency.computeIfAbsent(type, t -> new Histogram()).record(handlingNanos);
+    }
+
+    /**
+     * Counts bytes written to the network, including frame headers.
+     *
+     * @param bytes Number of bytes.
+     */
+    public void bytesSent(int bytes) {
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * Counts bytes read from the network, including frame headers.
+     *
+     * @param bytes Number of bytes.
+     */
+    public void bytesReceived(int bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Counts a failed send to a neighbor.
+     *
+     * @param neighborId ID of the neighbor.
+     */
+    public void sendFailed(int neighborId) {
+        int index = neighbors.indexOf(neighborId);
+        if (index >= 0) {
+            sendFailures.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * Records the time from initiation to assembly of a snapshot this node initiated.
+     *
+     * @param nanos Snapshot duration.
+     */
+    public void snapshotCompleted(long nanos) {
+        Histogram histogram = snapshotDuration.get();
+        if (histogram == null && !snapshotDuration.compareAndSet(null, histogram = new Histogram())) {
+            histogram = snapshotDuration.get();
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Records how long a channel was recorded before the neighbor's marker arrived.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param nanos      Time from local recording to the marker.
+     */
+    public void markerWaited(int neighborId, long nanos) {
+        int index = neighbors.indexOf(neighborId);
+        if (index >= 0) {
+            Histogram histogram = markerWait.get(index);
+            if (histogram == null && !markerWait.compareAndSet(index, null, histogram = new Histogram())) {
+                histogram = markerWait.get(index);
+            }
+            histogram.record(nanos);
+        }
+    }
+
+    /**
+     * Counts a recorded channel state.
+     *
+     * @param amount Bitcakes recorded in transit on the channel.
+     */
+    public void channelStateRecorded(long amount) {
+        recordedChannelStates.increment();
+        recordedChannelAmount.add(amount);
+    }
+
+    /**
+     * Adds a period in which the channel to a neighbor had transfers waiting for credit.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param nanos      Length of the throttled period.
+     */
+    public void throttled(int neighborId, long nanos) {
+        int index = neighbors.indexOf(neighborId);
+        if (index >= 0) {
+            throttledNanos.addAndGet(index, nanos);
+        }
+    }
+
+    /**
+     * Counts a transfer rejected for lack of flow control credit.
+     */
+    public void flowRejected() {
+        flowRejections.increment();
+    }
+
+    /**
+     * Records one batch flushed to a neighbor.
+     *
+     * @param batchSize  Number of messages in the batch.
+     * @param flushNanos Time from the first queued message of the batch until the flush finished.
+     */
+    public void batchFlushed(int batchSize, long flushNanos) {
+        outbound.recordFlush(batchSize, flushNanos);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing an earlier registration of
+     * a node with the same ID.
+     *
+     * @param nodeId ID of the node.
+     * @param logger Logger of the node, for registration failures.
+     */
+    public void register(int nodeId, NodeLogger logger) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("raf.aleksabuncic:type=NodeMetrics,node=" + nodeId);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            logger.error("Failed to register metrics: {}", e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getSentByType() {
+        return sums(sent);
+    }
+
+    @Override
+    public Map<String, Long> getReceivedByType() {
+        return sums(received);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public Map<Integer, Long> getSendFailuresByNeighbor() {
+        Map<Integer, Long> failures = new TreeMap<>();
+        for (int i = 0; i < neighbors.size(); i++) {
+            failures.put(neighbors.idAt(i), sendFailures.get(i));
+        }
+        return failures;
+    }
+
+    @Override
+    public Map<String, HistogramSummary> getHandlingLatency() {
+        Map<String, HistogramSummary> summaries = new TreeMap<>();
+        handlingLatency.forEach((type, histogram) -> summaries.put(type, histogram.summarize()));
+        return summaries;
+    }
+
+    @Override
+    public HistogramSummary getSnapshotDuration() {
+        Histogram histogram = snapshotDuration.get();
+        return (histogram == null ? EMPTY : histogram).summarize();
+    }
+
+    @Override
+    public Map<Integer, HistogramSummary> getMarkerWaitByNeighbor() {
+        Map<Integer, HistogramSummary> summaries = new TreeMap<>();
+        for (int i = 0; i < neighbors.size(); i++) {
+            Histogram histogram = markerWait.get(i);
+            summaries.put(neighbors.idAt(i), (histogram == null ? EMPTY : histogram).summarize());
+        }
+        return summaries;
+    }
+
+    @Override
+    public long getRecordedChannelStates() {
+        return recordedChannelStates.sum();
+    }
+
+    @Override
+    public long getRecordedChannelAmount() {
+        return recordedChannelAmount.sum();
+    }
+
+    @Override
+    public Map<Integer, Long> getThrottledNanosByNeighbor() {
+        Map<Integer, Long> throttled = new TreeMap<>();
+        for (int i = 0; i < neighbors.size(); i++) {
+            throttled.put(neighbors.idAt(i), throttledNanos.get(i));
+        }
+        return throttled;
+    }
+
+    @Override
+    public long getFlowRejections() {
+        return flowRejections.sum();
+    }
+
+    @Override
+    public OutboundStats getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Sums a map of counters into a sorted map of values.
+     *
+     * @param counters Counters by key.
+     * @return Current values by key.
+     */
+    private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((key, counter) -> values.put(key, counter.sum()));
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append("Sent: ").append(getSentByType()).append('\n');
+        out.append("Received: ").append(getReceivedByType()).append('\n');
+        out.append("Bytes sent/received: ").append(getBytesSent()).append(" / ").append(getBytesReceived()).append('\n');
+        out.append("Send failures: ").append(getSendFailuresByNeighbor()).append('\n');
+        getHandlingLatency().forEach((type, summary) -> out.append("Handling ").append(type).append(" (ns): ").append(summary).append('\n'));
+        out.append("Snapshot duration (ns): ").append(getSnapshotDuration()).append('\n');
+        getMarkerWaitByNeighbor().forEach((id, summary) -> out.append("Marker wait from Node ").append(id).append(" (ns): ").append(summary).append('\n'));
+        out.append("Recorded channel states: ").append(getRecordedChannelStates()).append(" | Amount: ").append(getRecordedChannelAmount()).append('\n');
+        out.append("Throttled (ns): ").append(getThrottledNanosByNeighbor()).append(" | Flow rejections: ").append(getFlowRejections()).append('\n');
+        out.append("Outbound batches: ").append(getOutbound());
+        return out.toString();
+    }
+}
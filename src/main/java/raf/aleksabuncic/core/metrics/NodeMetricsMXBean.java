@@ -0,0 +1,34 @@
+package raf.aleksabuncic.core.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a node's metrics. Durations are in nanoseconds.
+ */
+public interface NodeMetricsMXBean {
+    Map<String, Long> getSentByType();
+
+    Map<String, Long> getReceivedByType();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    Map<Integer, Long> getSendFailuresByNeighbor();
+
+    Map<String, HistogramSummary> getHandlingLatency();
+
+    HistogramSummary getSnapshotDuration();
+
+    Map<Integer, HistogramSummary> getMarkerWaitByNeighbor();
+
+    long getRecordedChannelStates();
+
+    long getRecordedChannelAmount();
+
+    Map<Integer, Long> getThrottledNanosByNeighbor();
+
+    long getFlowRejections();
+
+    OutboundStats getOutbound();
+}
@@ -0,0 +1,73 @@
+package raf.aleksabuncic.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batching statistics of a node's outbound TCP channels: how many messages each flush wrote and
+ * how long the oldest of them waited in the queue. Exposed over JMX as composite data.
+ */
+public class OutboundStats {
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    /**
+     * Records one flushed batch.
+     *
+     * @param batchSize  Number of messages in the batch.
+     * @param flushNanos Time from the first queued message of the batch until the flush finished.
+     */
+    public void recordFlush(int batchSize, long flushNanos) {
+        flushes.increment();
+        messages.add(batchSize);
+        this.flushNanos.add(flushNanos);
+        maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        maxFlushNanos.accumulateAndGet(flushNanos, Math::max);
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos.get();
+    }
+
+    /**
+     * Returns the average number of messages per flush.
+     *
+     * @return Average batch size, or 0 if nothing was flushed.
+     */
+    public double getAverageBatchSize() {
+        long count = flushes.sum();
+        return count == 0 ? 0 : (double) messages.sum() / count;
+    }
+
+    /**
+     * Returns the average flush latency.
+     *
+     * @return Average latency in nanoseconds, or 0 if nothing was flushed.
+     */
+    public double getAverageFlushNanos() {
+        long count = flushes.sum();
+        return count == 0 ? 0 : (double) flushNanos.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("flushes=%d messages=%d avgBatch=%.2f maxBatch=%d avgFlushUs=%.1f maxFlushUs=%.1f",
+                getFlushCount(), getMessageCount(), getAverageBatchSize(), getMaxBatchSize(),
+                getAverageFlushNanos() / 1000, getMaxFlushNanos() / 1000.0);
+    }
+}
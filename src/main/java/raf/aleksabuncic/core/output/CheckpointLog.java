@@ -0,0 +1,365 @@
+package raf.aleksabuncic.core.output;
+
+import raf.aleksabuncic.types.SnapshotId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log of committed checkpoints of one node's state vector.
+ * <p>
+ * The log starts with a base record holding the full vector and the highest checkpoint sequence
+ * seen per initiator, followed by delta records holding only the fields that changed since the
+ * previous committed checkpoint. The sequences survive compaction that way, so a restarted node
+ * never reuses a snapshot ID. Every record is framed as
+ * (int payload length, int CRC32, payload), so a torn tail is detected and cut off on open. Once the
+ * chain reaches the base interval, the next checkpoint is written as a new base into a fresh file
+ * that replaces the old one, which compacts the chain away.
+ */
+public class CheckpointLog {
+    private static final byte BASE = 1;
+    private static final byte DELTA = 2;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int PAYLOAD_HEADER_SIZE = 13;
+
+    private final Path path;
+    private final int baseInterval;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Integer> lastSequences;
+    private FileChannel channel;
+    private Checkpoint committed;
+    private int chainLength = 0;
+    private boolean closed = false;
+
+    public CheckpointLog(Path path, int baseInterval) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.path = path;
+        this.baseInterval = Math.max(1, baseInterval);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        Replay replay = replay(channel);
+        if (replay.validSize < channel.size()) {
+            System.err.println("Checkpoint log " + path + " has a damaged tail, truncating to " + replay.validSize + " bytes");
+            channel.truncate(replay.validSize);
+        }
+        channel.position(replay.validSize);
+        this.committed = replay.checkpoint;
+        this.chainLength = replay.checkpoint == null ? 0 : replay.checkpoint.deltas();
+        this.lastSequences = replay.lastSequences;
+    }
+
+    /**
+     * Commits a checkpoint, writing a base or only the fields that changed since the last commit.
+     *
+     * @param snapshotId ID of the checkpoint.
+     * @param state      Captured state vector.
+     */
+    public void commit(SnapshotId snapshotId, long[] state) {
+        lock.lock();
+        try {
+            if (closed) {
+                System.err.println("Checkpoint log is closed, dropping checkpoint " + snapshotId);
+                return;
+            }
+            lastSequences.merge(snapshotId.initiatorId(), snapshotId.sequence(), Math::max);
+            if (committed == null || committed.state().length != state.length || chainLength + 1 >= baseInterval) {
+                writeBase(snapshotId, state);
+            } else {
+                writeDelta(snapshotId, state);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write checkpoint " + snapshotId + ":");
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the last committed checkpoint as kept in memory.
+     *
+     * @return Last checkpoint, or null if none was committed.
+     */
+    public Checkpoint lastCommitted() {
+        lock.lock();
+        try {
+            return committed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the last committed checkpoint from the file by applying the deltas to the base.
+     *
+     * @return Restored checkpoint, or null if the log is empty.
+     */
+    public Checkpoint restore() {
+        lock.lock();
+        try {
+            return replay(channel).checkpoint;
+        } catch (IOException e) {
+            System.err.println("Failed to restore from checkpoint log " + path + ":");
+            e.printStackTrace();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks that restoring from the file gives exactly the last committed checkpoint.
+     *
+     * @return True if the file and the committed state agree, false otherwise.
+     */
+    public boolean verify() {
+        lock.lock();
+        try {
+            Checkpoint restored = restore();
+            if (restored == null || committed == null) {
+                return restored == committed;
+            }
+            return restored.snapshotId().equals(committed.snapshotId()) && Arrays.equals(restored.state(), committed.state());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the highest sequence of a checkpoint initiated by the given node that is still in the log
+     * or was committed since it was opened.
+     *
+     * @param initiatorId ID of the initiator.
+     * @return Highest sequence, or 0 if none.
+     */
+    public int lastSequence(int initiatorId) {
+        lock.lock();
+        try {
+            return lastSequences.getOrDefault(initiatorId, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the log to disk and closes it.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a full base record into a new file and swaps it in, dropping the old chain. The record
+     * carries the known sequences per initiator, since the dropped records held them. The log is
+     * reopened even if the swap fails, and then keeps the old chain.
+     *
+     * @param snapshotId ID of the checkpoint.
+     * @param state      Full state vector.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeBase(SnapshotId snapshotId, long[] state) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_HEADER_SIZE + state.length * Long.BYTES
+                + Integer.BYTES + lastSequences.size() * 2 * Integer.BYTES);
+        payload.put(BASE).putLong(snapshotId.asLong()).putInt(state.length);
+        for (long value : state) {
+            payload.putLong(value);
+        }
+        payload.putInt(lastSequences.size());
+        for (Map.Entry<Integer, Integer> entry : lastSequences.entrySet()) {
+            payload.putInt(entry.getKey()).putInt(entry.getValue());
+        }
+
+        Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFrame(out, payload.flip());
+            out.force(false);
+        }
+        channel.close();
+        try {
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+
+        committed = new Checkpoint(snapshotId, state.clone(), 0);
+        chainLength = 0;
+    }
+
+    /**
+     * Appends a delta record with the fields that differ from the last committed checkpoint.
+     *
+     * @param snapshotId ID of the checkpoint.
+     * @param state      Full state vector.
+     * @throws IOException If the record cannot be written.
+     */
+    private void writeDelta(SnapshotId snapshotId, long[] state) throws IOException {
+        long[] previous = committed.state();
+        int changed = 0;
+        for (int i = 0; i < state.length; i++) {
+            if (state[i] != previous[i]) {
+                changed++;
+            }
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_HEADER_SIZE + changed * (Integer.BYTES + Long.BYTES));
+        payload.put(DELTA).putLong(snapshotId.asLong()).putInt(changed);
+        for (int i = 0; i < state.length; i++) {
+            if (state[i] != previous[i]) {
+                payload.putInt(i).putLong(state[i]);
+            }
+        }
+        writeFrame(channel, payload.flip());
+
+        chainLength++;
+        committed = new Checkpoint(snapshotId, state.clone(), chainLength);
+    }
+
+    /**
+     * Writes one framed record at the channel's position.
+     *
+     * @param out     Channel to write to.
+     * @param payload Record payload, ready for reading.
+     * @throws IOException If the write fails.
+     */
+    private static void writeFrame(FileChannel out, ByteBuffer payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.remaining());
+        frame.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+        while (frame.hasRemaining()) {
+            out.write(frame);
+        }
+    }
+
+    /**
+     * Reads the log from the start, applying every valid record, and stops at the first damaged one.
+     *
+     * @param in Channel to read.
+     * @return Replayed checkpoint and the size of the valid prefix.
+     * @throws IOException If the file cannot be read.
+     */
+    private static Replay replay(FileChannel in) throws IOException {
+        long size = in.size();
+        ByteBuffer file = ByteBuffer.allocate((int) size);
+        while (file.hasRemaining()) {
+            if (in.read(file, file.position()) < 0) {
+                break;
+            }
+        }
+        file.flip();
+
+        SnapshotId snapshotId = null;
+        long[] state = null;
+        int deltas = 0;
+        Map<Integer, Integer> lastSequences = new HashMap<>();
+        long validSize = 0;
+        while (file.remaining() >= FRAME_HEADER_SIZE) {
+            int length = file.getInt(file.position());
+            int checksum = file.getInt(file.position() + 4);
+            if (length < PAYLOAD_HEADER_SIZE || file.remaining() - FRAME_HEADER_SIZE < length) {
+                break;
+            }
+            ByteBuffer payload = file.slice(file.position() + FRAME_HEADER_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            byte kind = payload.get();
+            SnapshotId id = SnapshotId.fromLong(payload.getLong());
+            int count = payload.getInt();
+            if (kind == BASE && isBase(payload, count)) {
+                state = new long[count];
+                for (int i = 0; i < count; i++) {
+                    state[i] = payload.getLong();
+                }
+                int initiators = payload.hasRemaining() ? payload.getInt() : 0;
+                for (int i = 0; i < initiators; i++) {
+                    lastSequences.merge(payload.getInt(), payload.getInt(), Math::max);
+                }
+                deltas = 0;
+            } else if (kind == DELTA && state != null && payload.remaining() == count * (Integer.BYTES + Long.BYTES)) {
+                for (int i = 0; i < count; i++) {
+                    int field = payload.getInt();
+                    long value = payload.getLong();
+                    if (field < 0 || field >= state.length) {
+                        throw new IOException("Checkpoint delta field out of range: " + field);
+                    }
+                    state[field] = value;
+                }
+                deltas++;
+            } else {
+                break;
+            }
+
+            snapshotId = id;
+            lastSequences.merge(id.initiatorId(), id.sequence(), Math::max);
+            file.position(file.position() + FRAME_HEADER_SIZE + length);
+            validSize = file.position();
+        }
+        return new Replay(state == null ? null : new Checkpoint(snapshotId, state, deltas), validSize, lastSequences);
+    }
+
+    /**
+     * Checks that a base payload holds the vector, optionally followed by the sequences per initiator.
+     * Bases written before the sequences were added end right after the vector.
+     *
+     * @param payload Payload positioned after the record header.
+     * @param count   Length of the vector.
+     * @return True if the payload has a valid layout.
+     */
+    private static boolean isBase(ByteBuffer payload, int count) {
+        long rest = payload.remaining() - (long) count * Long.BYTES;
+        if (count < 0 || rest < 0) {
+            return false;
+        }
+        if (rest == 0) {
+            return true;
+        }
+        if (rest < Integer.BYTES) {
+            return false;
+        }
+        int initiators = payload.getInt(payload.position() + count * Long.BYTES);
+        return initiators >= 0 && rest == Integer.BYTES + (long) initiators * 2 * Integer.BYTES;
+    }
+
+    private record Replay(Checkpoint checkpoint, long validSize, Map<Integer, Integer> lastSequences) {
+    }
+
+    public record Checkpoint(SnapshotId snapshotId, long[] state, int deltas) {
+        /**
+         * Get the checkpointed bitcake balance
+         *
+         * @return Bitcake balance
+         */
+        public long bitcake() {
+            return state[0];
+        }
+    }
+}
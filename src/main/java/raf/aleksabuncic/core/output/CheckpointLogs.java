@@ -0,0 +1,49 @@
+package raf.aleksabuncic.core.output;
+
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class CheckpointLogs {
+    private static final Map<Path, CheckpointLog> LOGS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(CheckpointLogs::closeAll, "checkpoint-logs-shutdown"));
+    }
+
+    private CheckpointLogs() {
+    }
+
+    /**
+     * Returns the checkpoint log of a node, kept next to the snapshot store.
+     *
+     * @param nodeId   ID of the node.
+     * @param settings Node settings with the store directory and base interval.
+     * @return Checkpoint log.
+     */
+    public static CheckpointLog forNode(int nodeId, NodeSettings settings) {
+        Path path = Paths.get(settings.getStoreDirectory(), "checkpoints-node-" + nodeId + ".log").toAbsolutePath().normalize();
+        return LOGS.computeIfAbsent(path, p -> {
+            try {
+                return new CheckpointLog(p, settings.getCheckpointBaseInterval());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open checkpoint log " + p, e);
+            }
+        });
+    }
+
+    /**
+     * Forces and closes every open log.
+     */
+    public static void closeAll() {
+        for (CheckpointLog log : LOGS.values()) {
+            log.close();
+        }
+        LOGS.clear();
+    }
+}
@@ -0,0 +1,191 @@
+package raf.aleksabuncic.core.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class OutputWriter {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final String CLOSE = new String("CLOSE");
+
+    private final Path path;
+    private final FlushPolicy policy;
+    private final long flushIntervalNanos;
+    private final LinkedTransferQueue<String> queue = new LinkedTransferQueue<>();
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final Thread writerThread;
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    public enum FlushPolicy {
+        IDLE,
+        INTERVAL,
+        FSYNC;
+
+        /**
+         * Parses a policy from its configuration name.
+         *
+         * @param name "idle", "interval" or "fsync".
+         * @return Flush policy.
+         */
+        public static FlushPolicy fromName(String name) {
+            return name == null ? IDLE : valueOf(name.toUpperCase());
+        }
+    }
+
+    public OutputWriter(Path path, FlushPolicy policy, long flushIntervalMillis, int bufferSize) throws IOException {
+        this.path = path;
+        this.policy = policy;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.buffer = ByteBuffer.allocateDirect(Math.max(1024, bufferSize));
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writerThread = new Thread(this::run, "output-writer-" + path.getFileName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a line for appending. Never blocks on disk. Appends share a lock that close takes
+     * exclusively, so a line is either queued before the close marker or rejected.
+     *
+     * @param line Line to append, without a line separator.
+     */
+    public void append(String line) {
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                queue.offer(line);
+                return;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        System.err.println("Output writer for " + path + " is closed, dropping: " + line);
+    }
+
+    /**
+     * Drains all queued lines to disk, forces them out and closes the file.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.offer(CLOSE);
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writer loop: the only thread that touches the buffer and the channel.
+     */
+    private void run() {
+        long lastWrite = System.nanoTime();
+        try {
+            while (true) {
+                String line;
+                if (policy == FlushPolicy.INTERVAL) {
+                    long wait = flushIntervalNanos - (System.nanoTime() - lastWrite);
+                    line = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (line == null) {
+                        writeBuffer(false);
+                        lastWrite = System.nanoTime();
+                        continue;
+                    }
+                } else {
+                    line = queue.poll();
+                    if (line == null) {
+                        writeBuffer(policy == FlushPolicy.FSYNC);
+                        line = queue.take();
+                    }
+                }
+
+                if (line == CLOSE) {
+                    writeBuffer(true);
+                    return;
+                }
+                encode(line);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Output writer for " + path + " failed:");
+            e.printStackTrace();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Encodes a line into the buffer, writing the buffer out first if the line does not fit.
+     *
+     * @param line Line to encode.
+     * @throws IOException If writing the buffer fails.
+     */
+    private void encode(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int size = bytes.length + LINE_SEPARATOR.length;
+        if (buffer.remaining() < size) {
+            writeBuffer(false);
+        }
+        if (buffer.remaining() < size) {
+            writeFully(ByteBuffer.wrap(bytes));
+            writeFully(ByteBuffer.wrap(LINE_SEPARATOR));
+            return;
+        }
+        buffer.put(bytes);
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the buffered bytes to the file.
+     *
+     * @param force True to also force them to the storage device.
+     * @throws IOException If writing fails.
+     */
+    private void writeBuffer(boolean force) throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to the channel.
+     *
+     * @param bytes Bytes to write.
+     * @throws IOException If writing fails.
+     */
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
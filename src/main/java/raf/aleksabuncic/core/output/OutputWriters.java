@@ -0,0 +1,51 @@
+package raf.aleksabuncic.core.output;
+
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class OutputWriters {
+    private static final Map<Path, OutputWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(OutputWriters::closeAll, "output-writers-shutdown"));
+    }
+
+    private OutputWriters() {
+    }
+
+    /**
+     * Returns the writer for a node's snapshot output, shared by all nodes writing to the same file.
+     *
+     * @param nodeId   ID of the node.
+     * @param settings Node settings with the output directory, sharding and flush policy.
+     * @return Output writer.
+     */
+    public static OutputWriter forNode(int nodeId, NodeSettings settings) {
+        String fileName = settings.isPerNodeOutput() ? "output-node-" + nodeId + ".txt" : "output.txt";
+        Path path = Paths.get(settings.getOutputDirectory(), fileName).toAbsolutePath().normalize();
+        return WRITERS.computeIfAbsent(path, p -> {
+            try {
+                return new OutputWriter(p, OutputWriter.FlushPolicy.fromName(settings.getOutputFlushPolicy()),
+                        settings.getOutputFlushIntervalMillis(), settings.getOutputBufferSize());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open output file " + p, e);
+            }
+        });
+    }
+
+    /**
+     * Drains and closes every open writer.
+     */
+    public static void closeAll() {
+        for (OutputWriter writer : WRITERS.values()) {
+            writer.close();
+        }
+        WRITERS.clear();
+    }
+}
@@ -0,0 +1,332 @@
+package raf.aleksabuncic.core.output;
+
+import raf.aleksabuncic.types.SnapshotId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only binary store of snapshot records.
+ * <p>
+ * snapshots.dat holds fixed-size records (snapshot id, node id, channel, value, offset of the
+ * previous record of the same snapshot). snapshots.idx is an open-addressing hash table mapping a
+ * snapshot id to the offset of its newest record, so one snapshot is found with a single probe
+ * sequence and then read by following its chain. Both files are read through memory mappings.
+ */
+public class SnapshotStore {
+    public static final int NODE_STATE = -1;
+
+    private static final int RECORD_SIZE = 32;
+    private static final int INDEX_MAGIC = 0x534E4958;
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY = 0L;
+    private static final long NO_RECORD = -1L;
+
+    private final Path indexPath;
+    private final FileChannel data;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel index;
+    private MappedByteBuffer indexMap;
+    private int capacity;
+    private int count;
+    private long dataSize;
+    private MappedByteBuffer dataMap;
+    private boolean closed = false;
+
+    public SnapshotStore(Path directory, int initialCapacity) throws IOException {
+        Files.createDirectories(directory);
+        this.indexPath = directory.resolve("snapshots.idx");
+        this.data = FileChannel.open(directory.resolve("snapshots.dat"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dataSize = data.size() - data.size() % RECORD_SIZE;
+        openIndex(Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1);
+    }
+
+    /**
+     * Appends one record for a snapshot.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @param nodeId     ID of the node that recorded the value.
+     * @param channel    ID of the neighbor whose channel was recorded, or NODE_STATE for the node's own state.
+     * @param value      Recorded value.
+     */
+    public void append(SnapshotId snapshotId, int nodeId, int channel, long value) {
+        long key = keyOf(snapshotId);
+        lock.lock();
+        try {
+            if (closed) {
+                System.err.println("Snapshot store is closed, dropping record for " + snapshotId);
+                return;
+            }
+            int slot = findSlot(key);
+            long previous = indexMap.getLong(slotOffset(slot)) == key ? indexMap.getLong(slotOffset(slot) + 8) : NO_RECORD;
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putLong(snapshotId.asLong()).putInt(nodeId).putInt(channel).putLong(value).putLong(previous).flip();
+            long offset = dataSize;
+            while (record.hasRemaining()) {
+                data.write(record, offset + record.position());
+            }
+            dataSize += RECORD_SIZE;
+            indexMap.putLong(16, dataSize);
+
+            if (previous == NO_RECORD) {
+                indexMap.putLong(slotOffset(slot), key);
+                count++;
+                indexMap.putInt(8, count);
+            }
+            indexMap.putLong(slotOffset(slot) + 8, offset);
+
+            if (count > capacity * 3L / 4) {
+                resizeIndex(capacity * 2);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to store snapshot record for " + snapshotId + ":");
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns all records of one snapshot in the order they were appended.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @return Records of the snapshot, empty if it is unknown.
+     */
+    public List<SnapshotRecord> lookup(SnapshotId snapshotId) {
+        long key = keyOf(snapshotId);
+        lock.lock();
+        try {
+            int slot = findSlot(key);
+            if (indexMap.getLong(slotOffset(slot)) != key) {
+                return List.of();
+            }
+
+            MappedByteBuffer records = mapData();
+            List<SnapshotRecord> result = new ArrayList<>();
+            long offset = indexMap.getLong(slotOffset(slot) + 8);
+            while (offset != NO_RECORD) {
+                int position = (int) offset;
+                result.add(new SnapshotRecord(SnapshotId.fromLong(records.getLong(position)),
+                        records.getInt(position + 8), records.getInt(position + 12), records.getLong(position + 16)));
+                offset = records.getLong(position + 24);
+            }
+            Collections.reverse(result);
+            return result;
+        } catch (IOException e) {
+            System.err.println("Failed to read snapshot " + snapshotId + ":");
+            e.printStackTrace();
+            return List.of();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the highest sequence number stored for an initiator, so that new snapshots do not reuse IDs.
+     *
+     * @param initiatorId ID of the initiator.
+     * @return Highest stored sequence, or 0 if none.
+     */
+    public int lastSequence(int initiatorId) {
+        lock.lock();
+        try {
+            int last = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                long key = indexMap.getLong(slotOffset(slot));
+                if (key != EMPTY) {
+                    SnapshotId id = SnapshotId.fromLong(key - 1);
+                    if (id.initiatorId() == initiatorId) {
+                        last = Math.max(last, id.sequence());
+                    }
+                }
+            }
+            return last;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces both files to disk and closes them.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            indexMap.force();
+            data.force(false);
+            index.close();
+            data.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the index file, creating or rebuilding it if it is missing or does not match the data file.
+     *
+     * @param minimumCapacity Capacity to use for a new index.
+     * @throws IOException If the index cannot be opened.
+     */
+    private void openIndex(int minimumCapacity) throws IOException {
+        index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (index.size() >= INDEX_HEADER_SIZE) {
+            MappedByteBuffer header = index.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER_SIZE);
+            int storedCapacity = header.getInt(4);
+            if (header.getInt(0) == INDEX_MAGIC && storedCapacity > 0 && header.getLong(16) == dataSize
+                    && index.size() == INDEX_HEADER_SIZE + (long) storedCapacity * SLOT_SIZE) {
+                capacity = storedCapacity;
+                indexMap = index.map(FileChannel.MapMode.READ_WRITE, 0, index.size());
+                count = indexMap.getInt(8);
+                return;
+            }
+        }
+        rebuildIndex(minimumCapacity);
+    }
+
+    /**
+     * Rebuilds the index from the data file into a table of the given capacity.
+     *
+     * @param newCapacity Number of slots.
+     * @throws IOException If the index cannot be written.
+     */
+    private void rebuildIndex(int newCapacity) throws IOException {
+        long records = dataSize / RECORD_SIZE;
+        while (records > newCapacity * 3L / 4) {
+            newCapacity *= 2;
+        }
+        index.truncate(0);
+        createEmptyIndex(newCapacity);
+        MappedByteBuffer stored = mapData();
+        for (long offset = 0; offset < dataSize; offset += RECORD_SIZE) {
+            long key = stored.getLong((int) offset) + 1;
+            int slot = findSlot(key);
+            if (indexMap.getLong(slotOffset(slot)) != key) {
+                indexMap.putLong(slotOffset(slot), key);
+                count++;
+            }
+            indexMap.putLong(slotOffset(slot) + 8, offset);
+        }
+        indexMap.putInt(8, count);
+        indexMap.putLong(16, dataSize);
+    }
+
+    /**
+     * Grows the index by re-inserting every occupied slot into a larger table.
+     *
+     * @param newCapacity Number of slots.
+     * @throws IOException If the index cannot be written.
+     */
+    private void resizeIndex(int newCapacity) throws IOException {
+        int oldCapacity = capacity;
+        long[] keys = new long[count];
+        long[] heads = new long[count];
+        int n = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long key = indexMap.getLong(slotOffset(slot));
+            if (key != EMPTY) {
+                keys[n] = key;
+                heads[n++] = indexMap.getLong(slotOffset(slot) + 8);
+            }
+        }
+
+        index.truncate(0);
+        createEmptyIndex(newCapacity);
+        for (int i = 0; i < n; i++) {
+            int slot = findSlot(keys[i]);
+            indexMap.putLong(slotOffset(slot), keys[i]);
+            indexMap.putLong(slotOffset(slot) + 8, heads[i]);
+        }
+        count = n;
+        indexMap.putInt(8, count);
+        indexMap.putLong(16, dataSize);
+    }
+
+    /**
+     * Creates and maps an empty index table.
+     *
+     * @param newCapacity Number of slots, a power of two.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private void createEmptyIndex(int newCapacity) throws IOException {
+        capacity = newCapacity;
+        count = 0;
+        indexMap = index.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        indexMap.putInt(0, INDEX_MAGIC);
+        indexMap.putInt(4, capacity);
+        indexMap.putInt(8, 0);
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would be inserted.
+     *
+     * @param key Index key.
+     * @return Slot number.
+     */
+    private int findSlot(long key) {
+        int mask = capacity - 1;
+        int slot = (int) mix(key) & mask;
+        while (true) {
+            long stored = indexMap.getLong(slotOffset(slot));
+            if (stored == EMPTY || stored == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Maps the data file for reading, remapping only when it has grown since the last mapping.
+     *
+     * @return Mapping covering all records.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private MappedByteBuffer mapData() throws IOException {
+        if (dataMap == null || dataMap.capacity() < dataSize) {
+            dataMap = data.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+        }
+        return dataMap;
+    }
+
+    private static int slotOffset(int slot) {
+        return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static long keyOf(SnapshotId snapshotId) {
+        return snapshotId.asLong() + 1;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    public record SnapshotRecord(SnapshotId snapshotId, int nodeId, int channel, long value) {
+        /**
+         * Check if this record holds the node's own state rather than a channel state
+         *
+         * @return True for node state records
+         */
+        public boolean isNodeState() {
+            return channel == NODE_STATE;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package raf.aleksabuncic.core.output;
+
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class SnapshotStores {
+    private static final Map<Path, SnapshotStore> STORES = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(SnapshotStores::closeAll, "snapshot-stores-shutdown"));
+    }
+
+    private SnapshotStores() {
+    }
+
+    /**
+     * Returns the store configured for a node, shared by all nodes of this JVM that use the same directory.
+     *
+     * @param settings Node settings with the store directory.
+     * @return Snapshot store.
+     */
+    public static SnapshotStore forSettings(NodeSettings settings) {
+        Path directory = Paths.get(settings.getStoreDirectory()).toAbsolutePath().normalize();
+        return STORES.computeIfAbsent(directory, d -> {
+            try {
+                return new SnapshotStore(d, settings.getStoreIndexCapacity());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open snapshot store " + d, e);
+            }
+        });
+    }
+
+    /**
+     * Forces and closes every open store.
+     */
+    public static void closeAll() {
+        for (SnapshotStore store : STORES.values()) {
+            store.close();
+        }
+        STORES.clear();
+    }
+}
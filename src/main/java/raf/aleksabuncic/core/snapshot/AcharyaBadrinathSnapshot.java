@@ -1,124 +1,367 @@
 package raf.aleksabuncic.core.snapshot;
 
 import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.ChannelRecording;
+import raf.aleksabuncic.types.LocalState;
 import raf.aleksabuncic.types.Message;
-import raf.aleksabuncic.types.NodeState;
+import raf.aleksabuncic.types.NeighborIndex;
 import raf.aleksabuncic.types.Snapshot;
+import raf.aleksabuncic.types.SnapshotAssembly;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
+import raf.aleksabuncic.types.SpanningTree;
 
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Acharya-Badrinath snapshot with two ways of spreading the trigger.
+ * <p>
+ * In flood mode every node sends the trigger on every channel and records the channels that are
+ * still open, as markers do. In tree mode the trigger travels only along the spanning tree of the
+ * initiator, and channel states are settled up the tree from the per-neighbor sent and received
+ * totals in each node's recorded state. A node owes a trigger to every neighbor except its children
+ * and the neighbor it learned of the snapshot from, its parent included, since the parent may not
+ * have recorded yet. The trigger is sent lazily, right before the first transfer to that neighbor,
+ * so with FIFO channels no neighbor can receive a transfer sent after this node recorded before
+ * recording itself. Owed triggers are never dropped; a node that still owes triggers for too many
+ * snapshots refuses to initiate new ones instead.
+ * <p>
+ * Reports count the control messages each node sent up to its report, so lazy triggers sent after
+ * that are not part of the snapshot's message count; they are logged as they go out.
+ */
 public class AcharyaBadrinathSnapshot extends Snapshot {
-    private boolean recorded = false;
-    private final Map<Integer, Integer> channelStates = new HashMap<>();
-    private final Set<Integer> receivedFrom = new HashSet<>();
+    private static final int MAX_OWED_SNAPSHOTS = 1024;
+
+    private final Map<SnapshotId, Instance> instances = new HashMap<>();
+    private final boolean treeMode;
+    private final Map<SnapshotId, BitSet> owedTriggers = new LinkedHashMap<>();
+    private final int[] owedPerNeighbor;
+    private volatile int owedTotal = 0;
 
     public AcharyaBadrinathSnapshot(NodeRuntime runtime) {
         super(runtime);
+        boolean tree = runtime.getNodeModel().getSettings().isTreeDissemination();
+        if (tree && runtime.getTopology() == null) {
+            logger.warn("Tree dissemination needs the configured topology, falling back to flooding.");
+            tree = false;
+        }
+        this.treeMode = tree;
+        this.owedPerNeighbor = new int[runtime.getNeighborIndex().size()];
     }
 
     @Override
-    public synchronized void initiate() {
-        if (!canInitiateSnapshot()) {
-            log("Cannot initiate snapshot: already in SNAPSHOT state or invalid node state.");
-            return;
+    public SnapshotId initiate() {
+        lock.lock();
+        try {
+            if (!canInitiateSnapshot(instances.size())) {
+                logger.warn("Cannot initiate snapshot: too many snapshots in progress.");
+                return null;
+            }
+            if (owedTriggers.size() >= MAX_OWED_SNAPSHOTS) {
+                logger.warn("Cannot initiate snapshot: triggers are still owed for {} snapshots.", owedTriggers.size());
+                return null;
+            }
+
+            SnapshotId snapshotId = nextSnapshotId();
+            if (treeMode) {
+                recordTreeState(snapshotId, -1);
+            } else {
+                checkLocalCompletion(recordState(snapshotId, -1));
+            }
+            return snapshotId;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        log("Initiating Acharya-Badrinath snapshot locally...");
-        recorded = true;
-        setSnapshotState(true);
-        writeNodeStateToOutput();
+    @Override
+    public void handleMessage(Message message) {
+        lock.lock();
+        try {
+            int senderId = message.senderId();
 
-        for (int neighborId : runtime.getNodeModel().getNeighbors()) {
-            Message trigger = new Message("SNAPSHOT_TRIGGER", runtime.getId(), "AB");
-            runtime.sendMessageTo(neighborId, trigger);
+            switch (message.type()) {
+                case "SNAPSHOT_TRIGGER" -> handleSnapshotTrigger(senderId, message.content());
+                case "SNAPSHOT_REPORT" -> handleReport(senderId, message.content());
+                case "TRANSFER" -> handleTransfer(senderId, Integer.parseInt(message.content()));
+                default -> logger.warn("Unknown message type received: {}", message.type());
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    @Override
-    public synchronized void handleMessage(Message message) {
-        int senderId = message.senderId();
+    /**
+     * Records the local state for a snapshot and sends SNAPSHOT_TRIGGER to all neighbors.
+     *
+     * @param id     ID of the snapshot being recorded.
+     * @param parent Neighbor whose trigger started the recording, or -1 on the initiator.
+     * @return The new snapshot instance.
+     */
+    private Instance recordState(SnapshotId id, int parent) {
+        logger.info("Initiating Acharya-Badrinath snapshot {} locally...", id);
+        Instance instance = new Instance(id, newChannelRecording(), newAssembly(parent));
+        instances.put(id, instance);
+        setSnapshotState(true);
+        instance.bitcake = writeNodeStateToOutput(id);
 
-        switch (message.type()) {
-            case "SNAPSHOT_TRIGGER" -> handleSnapshotTrigger(senderId);
-            case "TRANSFER" -> handleTransfer(senderId, Integer.parseInt(message.content()));
-            default -> log("Unknown message type received: " + message.type());
+        for (int neighborId : runtime.getNodeModel().getNeighbors()) {
+            Message trigger = new Message("SNAPSHOT_TRIGGER", runtime.getId(), markerContent(id, parent));
+            runtime.sendMessageTo(neighborId, trigger);
+            instance.assembly.countMessages(1);
         }
+        return instance;
     }
 
     /**
      * Handles an incoming SNAPSHOT_TRIGGER.
-     * If this is the first trigger, initiates the snapshot and sends it to neighbors.
-     * If not, simply records the sender and continues.
+     * If this is the first trigger of the snapshot, records the state and sends it to neighbors.
+     * If not, simply records the sender and continues. Triggers of finished snapshots are ignored.
      *
      * @param senderId ID of the node that sent the trigger.
+     * @param content  Trigger content with the snapshot ID and the sender's parent.
      */
-    private void handleSnapshotTrigger(int senderId) {
-        log("Received SNAPSHOT_TRIGGER from Node " + senderId);
+    private void handleSnapshotTrigger(int senderId, String content) {
+        SnapshotId id = SnapshotId.parse(content);
+        logger.debug("Received SNAPSHOT_TRIGGER from Node {} for snapshot {}", senderId, id);
 
-        boolean firstTime = !recorded;
+        if (treeMode) {
+            clearOwedTrigger(id, senderId);
+            if (!isFinished(id) && !instances.containsKey(id)) {
+                recordTreeState(id, senderId);
+            }
+            return;
+        }
 
-        if (firstTime) {
-            initiate();
+        if (isFinished(id)) {
+            logger.debug("Snapshot {} already finished. Ignoring trigger.", id);
+            return;
+        }
+
+        Instance instance = instances.get(id);
+        if (instance == null) {
+            instance = recordState(id, senderId);
         } else {
             for (int neighborId : runtime.getNodeModel().getNeighbors()) {
-                if (neighborId != senderId && !receivedFrom.contains(neighborId)) {
-                    Message trigger = new Message("SNAPSHOT_TRIGGER", runtime.getId(), "AB");
+                if (neighborId != senderId && !instance.channels.isClosed(neighborId)) {
+                    Message trigger = new Message("SNAPSHOT_TRIGGER", runtime.getId(), markerContent(id, instance.assembly.getParent()));
                     runtime.sendMessageTo(neighborId, trigger);
+                    instance.assembly.countMessages(1);
                 }
             }
         }
 
-        receivedFrom.add(senderId);
+        if (closeChannel(instance.channels, senderId) && markerParent(content) == getNodeId()) {
+            instance.assembly.addChild();
+        }
+
+        checkLocalCompletion(instance);
+    }
+
+    /**
+     * Records the local state for a snapshot in tree mode and sends SNAPSHOT_TRIGGER to the children
+     * in the initiator's spanning tree. Triggers to all other neighbors, the parent included, are
+     * owed until the next transfer to them, except to the neighbor known to have recorded.
+     *
+     * @param id       ID of the snapshot being recorded.
+     * @param recorded Neighbor known to have recorded already, or -1.
+     * @return The new snapshot instance.
+     */
+    private Instance recordTreeState(SnapshotId id, int recorded) {
+        logger.info("Initiating Acharya-Badrinath snapshot {} locally (tree)...", id);
+        SpanningTree tree = runtime.getTopology().spanningTree(id.initiatorId());
+        int parent = tree.parentOf(getNodeId());
+        Instance instance = new Instance(id, null, newAssembly(parent));
+        instances.put(id, instance);
+        setSnapshotState(true);
+
+        LocalState state = runtime.freezeState();
+        writeNodeStateToOutput(id);
+
+        NeighborIndex neighbors = runtime.getNeighborIndex();
+        BitSet owed = new BitSet(neighbors.size());
+        owed.set(0, neighbors.size());
+        for (int childId : tree.childrenOf(getNodeId())) {
+            runtime.sendMessageTo(childId, new Message("SNAPSHOT_TRIGGER", getNodeId(), markerContent(id, parent)));
+            instance.assembly.addChild();
+            instance.assembly.countMessages(1);
+            owed.clear(neighbors.indexOf(childId));
+        }
+        if (neighbors.contains(recorded)) {
+            owed.clear(neighbors.indexOf(recorded));
+        }
 
-        if (isSnapshotComplete(receivedFrom)) {
-            log("Snapshot complete. Writing channel states...");
-            writeChannelStatesToOutput();
-            resetSnapshot();
+        for (int i = owed.nextSetBit(0); i >= 0; i = owed.nextSetBit(i + 1)) {
+            owedPerNeighbor[i]++;
+        }
+        if (!owed.isEmpty()) {
+            owedTriggers.put(id, owed);
+            owedTotal += owed.cardinality();
         }
+
+        instance.localDone = true;
+        instance.assembly.addLocal(getNodeId(), neighbors, state);
+        checkAssembly(instance);
+        return instance;
     }
 
     /**
-     * Handles a TRANSFER message during the snapshot.
-     * Buffers the amount if it arrives from a channel not yet recorded.
+     * Sends the triggers owed to a neighbor ahead of a transfer to it.
      *
-     * @param senderId ID of the sender node.
-     * @param amount   Amount of bitcakes received.
+     * @param neighborId ID of the neighbor the transfer goes to.
      */
-    private void handleTransfer(int senderId, int amount) {
-        if (recorded && !receivedFrom.contains(senderId)) {
-            channelStates.merge(senderId, amount, Integer::sum);
-            log("Buffered " + amount + " from Node " + senderId + " during snapshot");
+    @Override
+    public void onTransferSending(int neighborId) {
+        if (owedTotal == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            int index = runtime.getNeighborIndex().indexOf(neighborId);
+            if (index < 0 || owedPerNeighbor[index] == 0) {
+                return;
+            }
+
+            Iterator<Map.Entry<SnapshotId, BitSet>> entries = owedTriggers.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<SnapshotId, BitSet> entry = entries.next();
+                if (!entry.getValue().get(index)) {
+                    continue;
+                }
+                SnapshotId id = entry.getKey();
+                int parent = runtime.getTopology().spanningTree(id.initiatorId()).parentOf(getNodeId());
+                runtime.sendMessageTo(neighborId, new Message("SNAPSHOT_TRIGGER", getNodeId(), markerContent(id, parent)));
+                logger.debug("Sent owed trigger to Node {} ahead of a transfer for snapshot {}.", neighborId, id);
+                Instance instance = instances.get(id);
+                if (instance != null) {
+                    instance.assembly.countMessages(1);
+                }
+
+                entry.getValue().clear(index);
+                owedPerNeighbor[index]--;
+                owedTotal--;
+                if (entry.getValue().isEmpty()) {
+                    entries.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Writes the recorded channel states to the output.
+     * Forgets the trigger owed to a neighbor, because it is known to have recorded the snapshot.
+     *
+     * @param id       ID of the snapshot.
+     * @param senderId ID of the neighbor.
      */
-    private void writeChannelStatesToOutput() {
-        for (Map.Entry<Integer, Integer> entry : channelStates.entrySet()) {
-            writeToOutput("CHANNEL_STATE from Node " + entry.getKey() + ": " + entry.getValue() + " bitcakes");
+    private void clearOwedTrigger(SnapshotId id, int senderId) {
+        BitSet owed = owedTriggers.get(id);
+        int index = runtime.getNeighborIndex().indexOf(senderId);
+        if (owed == null || index < 0 || !owed.get(index)) {
+            return;
+        }
+        owed.clear(index);
+        owedPerNeighbor[index]--;
+        owedTotal--;
+        if (owed.isEmpty()) {
+            owedTriggers.remove(id);
         }
     }
 
     /**
-     * Resets the internal snapshot state.
+     * Handles the merged result of a child's subtree.
+     *
+     * @param senderId ID of the child.
+     * @param content  Report content.
      */
-    private void resetSnapshot() {
-        setSnapshotState(false);
-        recorded = false;
-        receivedFrom.clear();
-        channelStates.clear();
+    private void handleReport(int senderId, String content) {
+        SnapshotId id = SnapshotId.parse(content);
+        Instance instance = instances.get(id);
+        if (instance == null && treeMode && !isFinished(id)) {
+            // A child can record on a lazy trigger and report before this node's own trigger arrives.
+            instance = recordTreeState(id, senderId);
+        }
+        if (instance == null) {
+            logger.debug("Report from Node {} for unknown snapshot {}. Ignoring.", senderId, id);
+            return;
+        }
+
+        instance.assembly.addReport(content);
+        checkAssembly(instance);
     }
 
     /**
-     * Checks whether the node is eligible to initiate a snapshot.
+     * Writes the channel states once triggers arrived from all neighbors and adds this node's result to the assembly.
      *
-     * @return True if a snapshot can be initiated, false otherwise.
+     * @param instance Snapshot instance.
      */
-    private boolean canInitiateSnapshot() {
-        return runtime.getNodeModel().getState() == NodeState.AVAILABLE && !recorded;
+    private void checkLocalCompletion(Instance instance) {
+        if (!instance.channels.isComplete() || instance.localDone) {
+            return;
+        }
+
+        logger.debug("Snapshot {} complete. Writing channel states...", instance.id);
+        writeChannelStatesToOutput(instance.id, instance.channels);
+        instance.localDone = true;
+        instance.assembly.addLocal(new SnapshotReport(1, instance.bitcake, instance.channels.total(), 0));
+        checkAssembly(instance);
+    }
+
+    /**
+     * Reports the subtree result and drops the instance once this node and all of its children are done.
+     *
+     * @param instance Snapshot instance.
+     */
+    private void checkAssembly(Instance instance) {
+        if (instance.assembly.isComplete()) {
+            completeAssembly(instance.id, instance.assembly);
+            finishSnapshot(instance);
+        }
+    }
+
+    /**
+     * Handles a TRANSFER message during snapshots.
+     * Buffers the amount in every snapshot whose channel from the sender is not yet recorded.
+     *
+     * @param senderId ID of the sender node.
+     * @param amount   Amount of bitcakes received.
+     */
+    private void handleTransfer(int senderId, int amount) {
+        for (Instance instance : instances.values()) {
+            if (instance.channels != null && instance.channels.record(senderId, amount)) {
+                logger.debug("Buffered {} from Node {} during snapshot {}", amount, senderId, instance.id);
+            }
+        }
+    }
+
+    /**
+     * Drops a completed snapshot instance.
+     *
+     * @param instance Snapshot instance.
+     */
+    private void finishSnapshot(Instance instance) {
+        instances.remove(instance.id);
+        markFinished(instance.id);
+        setSnapshotState(!instances.isEmpty());
+    }
+
+    private static final class Instance {
+        private final SnapshotId id;
+        private final ChannelRecording channels;
+        private final SnapshotAssembly assembly;
+        private int bitcake;
+        private boolean localDone = false;
+
+        private Instance(SnapshotId id, ChannelRecording channels, SnapshotAssembly assembly) {
+            this.id = id;
+            this.channels = channels;
+            this.assembly = assembly;
+        }
     }
-}
\ No newline at end of file
+}
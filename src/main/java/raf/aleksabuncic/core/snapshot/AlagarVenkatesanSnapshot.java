@@ -1,108 +1,184 @@
 package raf.aleksabuncic.core.snapshot;
 
 import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.ChannelRecording;
 import raf.aleksabuncic.types.Message;
-import raf.aleksabuncic.types.NodeState;
 import raf.aleksabuncic.types.Snapshot;
+import raf.aleksabuncic.types.SnapshotAssembly;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 public class AlagarVenkatesanSnapshot extends Snapshot {
-    private boolean recorded = false;
-    private final Map<Integer, Integer> channelStates = new HashMap<>();
-    private final Set<Integer> receivedMarkers = new HashSet<>();
+    private final Map<SnapshotId, Instance> instances = new HashMap<>();
 
     public AlagarVenkatesanSnapshot(NodeRuntime runtime) {
         super(runtime);
     }
 
     @Override
-    public synchronized void initiate() {
-        if (!canInitiateSnapshot()) {
-            log("Cannot initiate snapshot: already in SNAPSHOT state or invalid node state.");
-            return;
+    public SnapshotId initiate() {
+        lock.lock();
+        try {
+            if (!canInitiateSnapshot(instances.size())) {
+                logger.warn("Cannot initiate snapshot: too many snapshots in progress.");
+                return null;
+            }
+
+            SnapshotId snapshotId = nextSnapshotId();
+            checkLocalCompletion(recordState(snapshotId, -1));
+            return snapshotId;
+        } finally {
+            lock.unlock();
         }
-
-        log("Initiating Alagar-Venkatesan snapshot...");
-        recorded = true;
-        setSnapshotState(true);
-
-        writeNodeStateToOutput();
-
-        sendMarkerToAllNeighbors("SNAPSHOT_MARKER");
     }
 
     @Override
-    public synchronized void handleMessage(Message message) {
-        switch (message.type()) {
-            case "SNAPSHOT_MARKER" -> handleMarkerMessage(message.senderId());
-            case "TRANSFER" -> handleTransferMessage(message.senderId(), Integer.parseInt(message.content()));
-            default -> log("Unknown message type received: " + message.type());
+    public void handleMessage(Message message) {
+        lock.lock();
+        try {
+            switch (message.type()) {
+                case "SNAPSHOT_MARKER" -> handleMarkerMessage(message.senderId(), message.content());
+                case "SNAPSHOT_REPORT" -> handleReportMessage(message.senderId(), message.content());
+                case "TRANSFER" -> handleTransferMessage(message.senderId(), Integer.parseInt(message.content()));
+                default -> logger.warn("Unknown message type received: {}", message.type());
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Handles a marker message.
+     * Records the local state for a snapshot and sends its markers to all neighbors.
+     *
+     * @param id     ID of the snapshot being recorded.
+     * @param parent Neighbor whose marker started the recording, or -1 on the initiator.
+     * @return The new snapshot instance.
+     */
+    private Instance recordState(SnapshotId id, int parent) {
+        logger.info("Initiating Alagar-Venkatesan snapshot {}...", id);
+        Instance instance = new Instance(id, newChannelRecording(), newAssembly(parent));
+        instances.put(id, instance);
+        setSnapshotState(true);
+
+        instance.bitcake = writeNodeStateToOutput(id);
+
+        instance.assembly.countMessages(sendMarkerToAllNeighbors("SNAPSHOT_MARKER", id, parent));
+        return instance;
+    }
+
+    /**
+     * Handles a marker message. Markers of finished snapshots are ignored.
      *
      * @param senderId ID of the sender.
+     * @param content  Marker content with the snapshot ID and the sender's parent.
      */
-    private void handleMarkerMessage(int senderId) {
-        log("Received MARKER from Node " + senderId);
+    private void handleMarkerMessage(int senderId, String content) {
+        SnapshotId id = SnapshotId.parse(content);
+        logger.debug("Received MARKER from Node {} for snapshot {}", senderId, id);
 
-        if (!recorded) {
-            initiate();
+        if (isFinished(id)) {
+            logger.debug("Snapshot {} already finished. Ignoring marker.", id);
+            return;
         }
 
-        receivedMarkers.add(senderId);
+        Instance instance = instances.get(id);
+        if (instance == null) {
+            instance = recordState(id, senderId);
+        }
 
-        if (isSnapshotComplete(receivedMarkers)) {
-            log("Snapshot complete. Writing channel states...");
-            writeChannelStatesToOutput();
-            resetSnapshot();
+        if (closeChannel(instance.channels, senderId) && markerParent(content) == getNodeId()) {
+            instance.assembly.addChild();
         }
+
+        checkLocalCompletion(instance);
     }
 
     /**
-     * Handles a transfer message.
+     * Handles the merged result of a child's subtree.
      *
-     * @param senderId ID of the sender.
-     * @param amount   Amount of bitcakes transferred.
+     * @param senderId ID of the child.
+     * @param content  Report content.
      */
-    private void handleTransferMessage(int senderId, int amount) {
-        if (recorded && !receivedMarkers.contains(senderId)) {
-            channelStates.merge(senderId, amount, Integer::sum);
-            log("Buffered " + amount + " from Node " + senderId + " during snapshot.");
+    private void handleReportMessage(int senderId, String content) {
+        SnapshotId id = SnapshotId.parse(content);
+        Instance instance = instances.get(id);
+        if (instance == null) {
+            logger.debug("Report from Node {} for unknown snapshot {}. Ignoring.", senderId, id);
+            return;
         }
+
+        instance.assembly.addReport(content);
+        checkAssembly(instance);
     }
 
     /**
-     * Reset snapshot values
+     * Writes the channel states once markers arrived on all channels and adds this node's result to the assembly.
+     *
+     * @param instance Snapshot instance.
      */
-    private void resetSnapshot() {
-        setSnapshotState(false);
-        recorded = false;
-        receivedMarkers.clear();
-        channelStates.clear();
+    private void checkLocalCompletion(Instance instance) {
+        if (!instance.channels.isComplete() || instance.localDone) {
+            return;
+        }
+
+        logger.debug("Snapshot {} complete. Writing channel states...", instance.id);
+        writeChannelStatesToOutput(instance.id, instance.channels);
+        instance.localDone = true;
+        instance.assembly.addLocal(new SnapshotReport(1, instance.bitcake, instance.channels.total(), 0));
+        checkAssembly(instance);
     }
 
     /**
-     * Check if it is the snapshot can be initialized
+     * Reports the subtree result and drops the instance once this node and all of its children are done.
      *
-     * @return True if it can be, false if not
+     * @param instance Snapshot instance.
      */
-    private boolean canInitiateSnapshot() {
-        return runtime.getNodeModel().getState() == NodeState.AVAILABLE && !recorded;
+    private void checkAssembly(Instance instance) {
+        if (instance.assembly.isComplete()) {
+            completeAssembly(instance.id, instance.assembly);
+            finishSnapshot(instance);
+        }
     }
 
     /**
-     * Write channel state to output
+     * Handles a transfer message, recording it in every snapshot still waiting for the sender's marker.
+     *
+     * @param senderId ID of the sender.
+     * @param amount   Amount of bitcakes transferred.
      */
-    private void writeChannelStatesToOutput() {
-        for (Map.Entry<Integer, Integer> entry : channelStates.entrySet()) {
-            writeToOutput("CHANNEL_STATE from Node " + entry.getKey() + ": " + entry.getValue() + " bitcakes");
+    private void handleTransferMessage(int senderId, int amount) {
+        for (Instance instance : instances.values()) {
+            if (instance.channels.record(senderId, amount)) {
+                logger.debug("Buffered {} from Node {} during snapshot {}.", amount, senderId, instance.id);
+            }
+        }
+    }
+
+    /**
+     * Drop a completed snapshot instance
+     *
+     * @param instance Snapshot instance
+     */
+    private void finishSnapshot(Instance instance) {
+        instances.remove(instance.id);
+        markFinished(instance.id);
+        setSnapshotState(!instances.isEmpty());
+    }
+
+    private static final class Instance {
+        private final SnapshotId id;
+        private final ChannelRecording channels;
+        private final SnapshotAssembly assembly;
+        private int bitcake;
+        private boolean localDone = false;
+
+        private Instance(SnapshotId id, ChannelRecording channels, SnapshotAssembly assembly) {
+            this.id = id;
+            this.channels = channels;
+            this.assembly = assembly;
         }
     }
-}
\ No newline at end of file
+}
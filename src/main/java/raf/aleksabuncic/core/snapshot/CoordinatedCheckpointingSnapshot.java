@@ -1,65 +1,210 @@
 package raf.aleksabuncic.core.snapshot;
 
 import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.SerialExecutor;
+import raf.aleksabuncic.core.output.CheckpointLog;
+import raf.aleksabuncic.core.output.CheckpointLogs;
+import raf.aleksabuncic.core.output.SnapshotStore;
+import raf.aleksabuncic.types.LocalState;
 import raf.aleksabuncic.types.Message;
 import raf.aleksabuncic.types.Snapshot;
+import raf.aleksabuncic.types.SnapshotAssembly;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Koo-Toueg style coordinated checkpointing.
+ * <p>
+ * A tentative checkpoint is a frozen copy of the node's state. Control messages are handled without
+ * the runtime's exclusive state lock, which is only taken for the copy itself, once per checkpoint,
+ * so transfers keep flowing while checkpoints run. The copy is taken before the checkpoint lock to
+ * keep the lock order. Writing the checkpoint to the snapshot store or the checkpoint log happens
+ * later, in order, on a background serial executor.
+ * <p>
+ * Since transfers are not held back, a node tags every transfer it sends with the checkpoints it has
+ * taken but not yet finalized, from just before the copy on. A neighbor that has not checkpointed a
+ * tagged snapshot yet copies its state before handling the transfer and uses that copy once the
+ * request arrives, so no transfer sent after a checkpoint is received before the receiver's one.
+ * By the time a node finalizes a checkpoint all of its neighbors have taken theirs, so the tag is
+ * dropped then. Channel states are settled from the recorded counters as the acks are merged.
+ */
 public class CoordinatedCheckpointingSnapshot extends Snapshot {
-    private final Set<Integer> receivedRequests = new HashSet<>();
-    private final Map<Integer, Set<Integer>> acksReceivedPerInitiator = new HashMap<>();
-    private final Map<Integer, Set<Integer>> requestsSentPerInitiator = new HashMap<>();
-    private final Set<Integer> stateRecordedForInitiator = new HashSet<>(); // NEW
+    private final Set<SnapshotId> receivedRequests = ConcurrentHashMap.newKeySet();
+    private final Map<SnapshotId, Set<Integer>> acksReceivedPerSnapshot = new HashMap<>();
+    private final Map<SnapshotId, Set<Integer>> requestsSentPerSnapshot = new HashMap<>();
+    private final Map<SnapshotId, LocalState> tentativeCheckpoints = new HashMap<>();
+    private final Map<SnapshotId, LocalState> forcedCheckpoints = new ConcurrentHashMap<>();
+    private final Set<SnapshotId> tagged = new LinkedHashSet<>();
+    private volatile String transferTag = null;
+    private final Map<SnapshotId, SnapshotAssembly> assemblies = new HashMap<>();
+    private final CheckpointLog checkpointLog;
+    private final SerialExecutor persistence;
 
     public CoordinatedCheckpointingSnapshot(NodeRuntime runtime) {
         super(runtime);
+        this.checkpointLog = runtime.getNodeModel().getSettings().isIncrementalCheckpoints()
+                ? CheckpointLogs.forNode(runtime.getId(), runtime.getNodeModel().getSettings())
+                : null;
+        this.persistence = new SerialExecutor(runtime.getExecutor());
     }
 
     @Override
-    public synchronized void initiate() {
-        int initiatorId = getNodeId();
-        if (receivedRequests.contains(initiatorId)) {
-            log("Already initiated snapshot with this ID. Ignoring.");
-            return;
+    public boolean requiresStateLock() {
+        return false;
+    }
+
+    @Override
+    public SnapshotId initiate() {
+        SnapshotId snapshotId;
+        lock.lock();
+        try {
+            snapshotId = nextSnapshotId();
+        } finally {
+            lock.unlock();
         }
+        LocalState state = freezeTagged(snapshotId);
+
+        lock.lock();
+        try {
+            logger.info("Initiating Coordinated Checkpoint {}...", snapshotId);
+
+            receivedRequests.add(snapshotId);
+            setSnapshotState(true);
+
+            recordTentativeCheckpoint(snapshotId, -1, state);
 
-        log("Initiating Coordinated Checkpoint...");
+            Set<Integer> neighbors = new HashSet<>(runtime.getNodeModel().getNeighbors());
+            requestsSentPerSnapshot.put(snapshotId, neighbors);
+            acksReceivedPerSnapshot.put(snapshotId, new HashSet<>());
 
-        receivedRequests.add(initiatorId);
-        setSnapshotState(true);
+            for (int neighborId : neighbors) {
+                runtime.sendMessageTo(neighborId, new Message("CHECKPOINT_REQUEST", getNodeId(), snapshotId.toString()));
+            }
+            assemblies.get(snapshotId).countMessages(neighbors.size());
+
+            if (neighbors.isEmpty()) {
+                SnapshotAssembly assembly = finalizeSnapshot(snapshotId);
+                SnapshotReport report = assembly.getReport();
+                writeSettledChannels(snapshotId, assembly);
+                writeGlobalStateToOutput(snapshotId, report, assembly.elapsedNanos());
+            }
+            return snapshotId;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        // Write state only once per initiator
-        if (!stateRecordedForInitiator.contains(initiatorId)) {
-            writeNodeStateToOutput();
-            stateRecordedForInitiator.add(initiatorId);
+    @Override
+    public void handleMessage(Message message) {
+        if ("TRANSFER".equals(message.type())) {
+            logger.debug("Received TRANSFER of {} from Node {}", message.content(), message.senderId());
+            return;
         }
 
-        Set<Integer> neighbors = new HashSet<>(runtime.getNodeModel().getNeighbors());
-        requestsSentPerInitiator.put(initiatorId, neighbors);
-        acksReceivedPerInitiator.put(initiatorId, new HashSet<>());
+        // Only the first request for a snapshot records, so later ones and late duplicates of
+        // finished snapshots skip the freeze and never tag transfers again. A request that finds a
+        // forced checkpoint uses it under the lock instead.
+        LocalState state = null;
+        if ("CHECKPOINT_REQUEST".equals(message.type())) {
+            SnapshotId snapshotId = SnapshotId.parse(message.content());
+            if (needsForcedCheckpoint(snapshotId)) {
+                state = freezeTagged(snapshotId);
+            }
+        }
 
-        for (int neighborId : neighbors) {
-            runtime.sendMessageTo(neighborId, new Message("CHECKPOINT_REQUEST", getNodeId(), String.valueOf(initiatorId)));
+        lock.lock();
+        try {
+            switch (message.type()) {
+                case "CHECKPOINT_REQUEST" -> handleCheckpointRequest(message, state);
+                case "CHECKPOINT_ACK" -> handleCheckpointAck(message);
+            }
+        } finally {
+            lock.unlock();
         }
+    }
+
+    @Override
+    public String transferContent(int amount) {
+        String tag = transferTag;
+        return tag == null ? String.valueOf(amount) : amount + ":" + tag;
+    }
 
-        if (neighbors.isEmpty()) {
-            finalizeSnapshot(initiatorId);
+    @Override
+    public boolean mustRecordBefore(String tag) {
+        for (String id : tag.split(",")) {
+            if (needsForcedCheckpoint(SnapshotId.parse(id))) {
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
-    public synchronized void handleMessage(Message message) {
-        switch (message.type()) {
-            case "CHECKPOINT_REQUEST" -> handleCheckpointRequest(message);
-            case "CHECKPOINT_ACK" -> handleCheckpointAck(message);
-            case "TRANSFER" -> {
-                int amount = Integer.parseInt(message.content());
-                log("Received TRANSFER of " + amount + " from Node " + message.senderId());
+    public void recordBeforeTransfer(int senderId, String tag) {
+        lock.lock();
+        try {
+            for (String id : tag.split(",")) {
+                SnapshotId snapshotId = SnapshotId.parse(id);
+                if (needsForcedCheckpoint(snapshotId)) {
+                    logger.debug("Checkpointing {} before a transfer from Node {}", snapshotId, senderId);
+                    forcedCheckpoints.put(snapshotId, freezeTagged(snapshotId));
+                }
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if a tagged snapshot has neither been checkpointed nor finished on this node.
+     *
+     * @param snapshotId ID of the snapshot
+     * @return True if the state must be copied before the transfer is handled
+     */
+    private boolean needsForcedCheckpoint(SnapshotId snapshotId) {
+        return !receivedRequests.contains(snapshotId) && !forcedCheckpoints.containsKey(snapshotId) && !isFinished(snapshotId);
+    }
+
+    /**
+     * Starts tagging transfers with a snapshot and then copies the node state for it. Transfers sent
+     * between the two are counted as sent in the copy and still tagged, which is harmless. The tag is
+     * updated under the snapshot lock, which is released before the copy unless the caller holds it.
+     *
+     * @param snapshotId ID of the snapshot
+     * @return Frozen state
+     */
+    private LocalState freezeTagged(SnapshotId snapshotId) {
+        lock.lock();
+        try {
+            if (tagged.add(snapshotId)) {
+                transferTag = String.join(",", tagged.stream().map(SnapshotId::toString).toList());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return runtime.freezeState();
+    }
+
+    /**
+     * Stops tagging transfers with a snapshot.
+     *
+     * @param snapshotId ID of the snapshot
+     */
+    private void untag(SnapshotId snapshotId) {
+        lock.lock();
+        try {
+            if (tagged.remove(snapshotId)) {
+                transferTag = tagged.isEmpty() ? null : String.join(",", tagged.stream().map(SnapshotId::toString).toList());
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -67,40 +212,56 @@ public class CoordinatedCheckpointingSnapshot extends Snapshot {
      * Handle receiving checkpoint request
      *
      * @param message Message to handle
+     * @param state   State frozen for the request, or null if the snapshot was already seen
      */
-    private void handleCheckpointRequest(Message message) {
-        int initiatorId = Integer.parseInt(message.content());
+    private void handleCheckpointRequest(Message message, LocalState state) {
+        SnapshotId snapshotId = SnapshotId.parse(message.content());
         int senderId = message.senderId();
 
-        log("Received CHECKPOINT_REQUEST from Node " + senderId + " for initiator " + initiatorId);
+        logger.debug("Received CHECKPOINT_REQUEST from Node {} for snapshot {}", senderId, snapshotId);
 
-        if (!receivedRequests.contains(initiatorId)) {
-            receivedRequests.add(initiatorId);
-            runtime.getRequestSourceMap().putIfAbsent(initiatorId, senderId);
+        LocalState forced = forcedCheckpoints.remove(snapshotId);
+        if (forced != null) {
+            state = forced;
+        }
+
+        if (state != null && !receivedRequests.contains(snapshotId) && !isFinished(snapshotId)) {
+            receivedRequests.add(snapshotId);
+            runtime.getRequestSourceMap().putIfAbsent(snapshotId, senderId);
 
             setSnapshotState(true);
 
-            if (!stateRecordedForInitiator.contains(initiatorId)) {
-                writeNodeStateToOutput();
-                stateRecordedForInitiator.add(initiatorId);
-            }
+            recordTentativeCheckpoint(snapshotId, senderId, state);
 
             Set<Integer> neighborsToNotify = new HashSet<>();
             for (int neighborId : runtime.getNodeModel().getNeighbors()) {
                 if (neighborId != senderId) {
-                    runtime.sendMessageTo(neighborId, new Message("CHECKPOINT_REQUEST", getNodeId(), String.valueOf(initiatorId)));
+                    runtime.sendMessageTo(neighborId, new Message("CHECKPOINT_REQUEST", getNodeId(), snapshotId.toString()));
                     neighborsToNotify.add(neighborId);
                 }
             }
 
-            requestsSentPerInitiator.put(initiatorId, neighborsToNotify);
-            acksReceivedPerInitiator.put(initiatorId, new HashSet<>());
+            requestsSentPerSnapshot.put(snapshotId, neighborsToNotify);
+            assemblies.get(snapshotId).countMessages(neighborsToNotify.size());
+            acksReceivedPerSnapshot.put(snapshotId, new HashSet<>());
 
             if (neighborsToNotify.isEmpty()) {
-                runtime.sendMessageTo(senderId, new Message("CHECKPOINT_ACK", getNodeId(), String.valueOf(initiatorId)));
+                SnapshotAssembly assembly = finalizeSnapshot(snapshotId);
+                assembly.countMessages(1);
+                runtime.sendMessageTo(senderId, new Message("CHECKPOINT_ACK", getNodeId(), assembly.toContent(snapshotId)));
             }
         } else {
-            log("Already processed this snapshot instance. Ignoring...");
+            // The sender waits for an ACK from every neighbor it asked, so a duplicate request is
+            // acknowledged right away, without a report; this node's own checkpoint is reported through its first parent.
+            logger.debug("Already processed this snapshot instance. Acknowledging duplicate request...");
+            if (isFinished(snapshotId)) {
+                untag(snapshotId);
+            }
+            SnapshotAssembly assembly = assemblies.get(snapshotId);
+            if (assembly != null) {
+                assembly.countMessages(1);
+            }
+            runtime.sendMessageTo(senderId, new Message("CHECKPOINT_ACK", getNodeId(), snapshotId.toString()));
         }
     }
 
@@ -110,48 +271,100 @@ public class CoordinatedCheckpointingSnapshot extends Snapshot {
      * @param message Message to handle
      */
     private void handleCheckpointAck(Message message) {
-        int initiatorId = Integer.parseInt(message.content());
+        SnapshotId snapshotId = SnapshotId.parse(message.content());
         int senderId = message.senderId();
 
-        log("Received CHECKPOINT_ACK from Node " + senderId + " for initiator " + initiatorId);
+        logger.debug("Received CHECKPOINT_ACK from Node {} for snapshot {}", senderId, snapshotId);
 
-        Set<Integer> receivedAcks = acksReceivedPerInitiator.get(initiatorId);
+        Set<Integer> receivedAcks = acksReceivedPerSnapshot.get(snapshotId);
         if (receivedAcks == null) {
-            log("Unexpected ACK for unknown snapshot instance. Ignoring...");
+            logger.debug("Unexpected ACK for unknown snapshot instance. Ignoring...");
             return;
         }
 
-        receivedAcks.add(senderId);
+        if (receivedAcks.add(senderId)) {
+            assemblies.get(snapshotId).addReport(message.content());
+        }
 
-        Set<Integer> expectedAcks = requestsSentPerInitiator.getOrDefault(initiatorId, Set.of());
+        Set<Integer> expectedAcks = requestsSentPerSnapshot.getOrDefault(snapshotId, Set.of());
         if (!receivedAcks.containsAll(expectedAcks)) {
             return;
         }
 
-        finalizeSnapshot(initiatorId);
+        Integer sourceNode = runtime.getRequestSourceMap().get(snapshotId);
+        SnapshotAssembly assembly = finalizeSnapshot(snapshotId);
 
-        if (getNodeId() != initiatorId) {
-            Integer sourceNode = runtime.getRequestSourceMap().get(initiatorId);
+        if (getNodeId() == snapshotId.initiatorId()) {
+            SnapshotReport report = assembly.getReport();
+            writeSettledChannels(snapshotId, assembly);
+            writeGlobalStateToOutput(snapshotId, report, assembly.elapsedNanos());
+        } else {
+            writeSettledChannels(snapshotId, assembly);
             if (sourceNode != null) {
-                runtime.sendMessageTo(sourceNode, new Message("CHECKPOINT_ACK", getNodeId(), String.valueOf(initiatorId)));
+                assembly.countMessages(1);
+                runtime.sendMessageTo(sourceNode, new Message("CHECKPOINT_ACK", getNodeId(), assembly.toContent(snapshotId)));
             } else {
-                log("No route to initiator " + initiatorId + " for ACK");
+                logger.warn("No route to initiator {} for ACK", snapshotId.initiatorId());
             }
         }
     }
 
     /**
-     * Completing of snapshot
+     * Completing of snapshot. Drops everything kept for the snapshot and remembers it as finished,
+     * so late duplicate requests are still acknowledged without starting it again.
      *
-     * @param initiatorId ID of the initiator
+     * @param snapshotId ID of the snapshot
+     * @return Assembled result of this node's subtree
      */
-    private void finalizeSnapshot(int initiatorId) {
-        if (!receivedRequests.contains(initiatorId)) {
-            log("Cannot finalize unknown snapshot instance.");
+    private SnapshotAssembly finalizeSnapshot(SnapshotId snapshotId) {
+        receivedRequests.remove(snapshotId);
+        acksReceivedPerSnapshot.remove(snapshotId);
+        requestsSentPerSnapshot.remove(snapshotId);
+        runtime.getRequestSourceMap().remove(snapshotId);
+        markFinished(snapshotId);
+        untag(snapshotId);
+
+        SnapshotAssembly assembly = assemblies.remove(snapshotId);
+        if (assembly == null) {
+            logger.warn("Cannot finalize unknown snapshot instance.");
+            return new SnapshotAssembly(-1);
+        }
+
+        logger.debug("Snapshot complete at Node {} for snapshot {}", getNodeId(), snapshotId);
+        LocalState state = tentativeCheckpoints.remove(snapshotId);
+        if (checkpointLog != null && state != null) {
+            persistence.execute(() -> checkpointLog.commit(snapshotId, state.toVector()));
+        }
+        setSnapshotState(!tentativeCheckpoints.isEmpty());
+        return assembly;
+    }
+
+    /**
+     * Take a tentative checkpoint of the node state, once per snapshot.
+     * In full mode the state is queued for the snapshot store right away. In incremental mode only the
+     * output line is written, and the state is persisted as a delta when the checkpoint is committed.
+     *
+     * @param snapshotId ID of the snapshot
+     * @param parent     Node the request came from, or -1 on the initiator
+     * @param state      State frozen before the checkpoint lock was taken
+     */
+    private void recordTentativeCheckpoint(SnapshotId snapshotId, int parent, LocalState state) {
+        if (tentativeCheckpoints.containsKey(snapshotId)) {
             return;
         }
+        tentativeCheckpoints.put(snapshotId, state);
+        SnapshotAssembly assembly = newAssembly(parent);
+        assembly.addLocal(getNodeId(), runtime.getNeighborIndex(), state);
+        assemblies.put(snapshotId, assembly);
+        writeNodeStateLine(snapshotId, state.getBitcake());
+        if (checkpointLog == null) {
+            persistence.execute(() -> runtime.getSnapshotStore().append(snapshotId, getNodeId(), SnapshotStore.NODE_STATE, state.getBitcake()));
+        }
+    }
 
-        log("Snapshot complete at Node " + getNodeId() + " for snapshot " + initiatorId);
-        setSnapshotState(false);
+    @Override
+    protected int storedSequence() {
+        int stored = super.storedSequence();
+        return checkpointLog != null ? Math.max(stored, checkpointLog.lastSequence(getNodeId())) : stored;
     }
 }
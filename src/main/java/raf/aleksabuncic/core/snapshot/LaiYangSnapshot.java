@@ -0,0 +1,223 @@
+package raf.aleksabuncic.core.snapshot;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.LocalState;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.Snapshot;
+import raf.aleksabuncic.types.SnapshotAssembly;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SpanningTree;
+import raf.aleksabuncic.types.Topology;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lai-Yang snapshot for channels that need not be FIFO.
+ * <p>
+ * Snapshots are numbered by a global epoch, and every TRANSFER a node sends carries the last epoch
+ * it recorded, as "amount:epoch". A node records its state for an epoch before it handles any
+ * transfer tagged with a higher one, so no transfer sent after a recording is counted before it,
+ * whatever order the channels deliver in. The state of the channel from i to j is what i recorded
+ * as sent to j minus what j recorded as received from i in the same epoch. Nodes report their
+ * per-neighbor totals up the tree, and the channels are settled where both ends meet, so no node
+ * waits for anything on its channels.
+ * <p>
+ * To make sure idle nodes record too, the epoch also travels as a SNAPSHOT_TRIGGER along the
+ * spanning tree of the node with the lowest ID, which collects the reports and writes the global
+ * state. Nodes that start the same epoch concurrently simply take part in the same snapshot.
+ */
+public class LaiYangSnapshot extends Snapshot {
+    private final Map<SnapshotId, SnapshotAssembly> assemblies = new HashMap<>();
+    private final int collectorId;
+    private final SpanningTree tree;
+    private volatile int epoch;
+
+    public LaiYangSnapshot(NodeRuntime runtime) {
+        super(runtime);
+        Topology topology = runtime.getTopology();
+        if (topology == null || topology.size() == 0) {
+            throw new IllegalStateException("Lai-Yang snapshots need the configured topology.");
+        }
+        this.collectorId = topology.idAt(0);
+        this.tree = topology.spanningTree(collectorId);
+        this.epoch = runtime.getSnapshotStore().lastSequence(collectorId);
+        if (!tree.contains(getNodeId())) {
+            logger.warn("Node is not connected to collector {}, its snapshots will not complete.", collectorId);
+        }
+    }
+
+    @Override
+    public SnapshotId initiate() {
+        lock.lock();
+        try {
+            if (!canInitiateSnapshot(assemblies.size())) {
+                logger.warn("Cannot initiate snapshot: too many snapshots in progress.");
+                return null;
+            }
+
+            SnapshotId snapshotId = new SnapshotId(collectorId, epoch + 1);
+            logger.info("Initiating Lai-Yang snapshot {}...", snapshotId);
+            recordUpTo(snapshotId.sequence(), -1);
+            return snapshotId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        if ("TRANSFER".equals(message.type())) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            int senderId = message.senderId();
+
+            switch (message.type()) {
+                case "SNAPSHOT_TRIGGER" -> handleTrigger(senderId, SnapshotId.parse(message.content()));
+                case "SNAPSHOT_REPORT" -> handleReport(senderId, message.content());
+                default -> logger.warn("Unknown message type received: {}", message.type());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String transferContent(int amount) {
+        int current = epoch;
+        return current == 0 ? String.valueOf(amount) : amount + ":" + current;
+    }
+
+    @Override
+    public boolean mustRecordBefore(String tag) {
+        return Integer.parseInt(tag) > epoch;
+    }
+
+    @Override
+    public void recordBeforeTransfer(int senderId, String tag) {
+        int target = Integer.parseInt(tag);
+        lock.lock();
+        try {
+            if (target > epoch) {
+                logger.debug("Recording up to epoch {} before a transfer from Node {}", target, senderId);
+                recordUpTo(target, senderId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles a trigger. Triggers of epochs this node already recorded are ignored.
+     *
+     * @param senderId ID of the node that sent the trigger.
+     * @param id       ID of the snapshot.
+     */
+    private void handleTrigger(int senderId, SnapshotId id) {
+        logger.debug("Received SNAPSHOT_TRIGGER from Node {} for snapshot {}", senderId, id);
+        if (id.sequence() > epoch) {
+            recordUpTo(id.sequence(), senderId);
+        }
+    }
+
+    /**
+     * Handles the merged result of a child's subtree. A child can only report an epoch it recorded,
+     * so this node records up to that epoch first if it has not yet.
+     *
+     * @param senderId ID of the child.
+     * @param content  Report content.
+     */
+    private void handleReport(int senderId, String content) {
+        SnapshotId id = SnapshotId.parse(content);
+        if (id.sequence() > epoch) {
+            recordUpTo(id.sequence(), senderId);
+        }
+
+        SnapshotAssembly assembly = assemblies.get(id);
+        if (assembly == null) {
+            logger.debug("Report from Node {} for unknown snapshot {}. Ignoring.", senderId, id);
+            return;
+        }
+
+        assembly.addReport(content);
+        checkAssembly(id, assembly);
+    }
+
+    /**
+     * Records the local state for every epoch up to the target, all at the same point, and sends the
+     * target epoch on every tree edge except the one it came from. Called holding the exclusive state
+     * lock, so the recorded balance and counters are consistent.
+     *
+     * @param target Highest epoch to record.
+     * @param from   Neighbor known to have recorded the target epoch, or -1.
+     */
+    private void recordUpTo(int target, int from) {
+        setSnapshotState(true);
+        LocalState state = runtime.freezeState();
+        int parent = tree.parentOf(getNodeId());
+        List<Integer> children = tree.childrenOf(getNodeId());
+
+        SnapshotId[] recorded = new SnapshotId[target - epoch];
+        for (int i = 0; i < recorded.length; i++) {
+            recorded[i] = new SnapshotId(collectorId, epoch + 1 + i);
+            SnapshotAssembly assembly = newAssembly(parent);
+            for (int k = 0; k < children.size(); k++) {
+                assembly.addChild();
+            }
+            assembly.addLocal(getNodeId(), runtime.getNeighborIndex(), state);
+            assemblies.put(recorded[i], assembly);
+            writeNodeStateToOutput(recorded[i]);
+        }
+        epoch = target;
+
+        SnapshotId targetId = recorded[recorded.length - 1];
+        SnapshotAssembly targetAssembly = assemblies.get(targetId);
+        for (int neighborId : treeNeighbors(parent, children)) {
+            if (neighborId != from) {
+                runtime.sendMessageTo(neighborId, new Message("SNAPSHOT_TRIGGER", getNodeId(), targetId.toString()));
+                targetAssembly.countMessages(1);
+            }
+        }
+
+        for (SnapshotId id : recorded) {
+            checkAssembly(id, assemblies.get(id));
+        }
+    }
+
+    /**
+     * Lists the neighbors of this node in the spanning tree.
+     *
+     * @param parent   Parent, or -1 on the collector.
+     * @param children Children.
+     * @return Parent followed by the children.
+     */
+    private static List<Integer> treeNeighbors(int parent, List<Integer> children) {
+        if (parent < 0) {
+            return children;
+        }
+        List<Integer> neighbors = new ArrayList<>(children.size() + 1);
+        neighbors.add(parent);
+        neighbors.addAll(children);
+        return neighbors;
+    }
+
+    /**
+     * Reports the subtree result and drops the assembly once this node and all of its children are done.
+     *
+     * @param id       ID of the snapshot.
+     * @param assembly Assembly of this node's subtree.
+     */
+    private void checkAssembly(SnapshotId id, SnapshotAssembly assembly) {
+        if (!assembly.isComplete()) {
+            return;
+        }
+        assemblies.remove(id);
+        completeAssembly(id, assembly);
+        setSnapshotState(!assemblies.isEmpty());
+    }
+}
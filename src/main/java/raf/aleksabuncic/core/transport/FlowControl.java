@@ -0,0 +1,319 @@
+package raf.aleksabuncic.core.transport;
+
+import lombok.Getter;
+import raf.aleksabuncic.core.metrics.NodeMetrics;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.NeighborIndex;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Credit-based flow control of TRANSFER messages on every outgoing channel of a node.
+ * <p>
+ * Each channel starts with a window of credits and every TRANSFER takes one. The receiver hands
+ * credits back in FLOW_CREDIT messages once it has handled half a window of transfers from the
+ * sender, so at most one window of transfers per channel is ever in flight. What happens to a
+ * transfer without credit depends on the policy: BLOCK waits, FAIL rejects it, and QUEUE holds it
+ * here until credit arrives. Control messages need no credit, but while transfers are held on a
+ * channel they queue behind them, so the channel stays FIFO for markers. FLOW_CREDIT itself always
+ * bypasses the queue, otherwise two throttled nodes could wait on each other forever.
+ * <p>
+ * The window must be the same on all nodes (set it in the top-level settings block), because the
+ * receiver derives how often it returns credit from its own window.
+ */
+public class FlowControl {
+    public static final String CREDIT = "FLOW_CREDIT";
+
+    private final int nodeId;
+    private final Transport transport;
+    private final NeighborIndex neighbors;
+    private final NodeMetrics metrics;
+    @Getter
+    private final Policy policy;
+    private final int window;
+    private final int creditBatch;
+    private final Channel[] channels;
+    private final AtomicIntegerArray uncredited;
+    private final InFlightMessages inFlight = InFlightMessages.shared();
+
+    public enum Policy {
+        BLOCK,
+        FAIL,
+        QUEUE;
+
+        /**
+         * Parses a policy from its configuration name.
+         *
+         * @param name "block", "fail" or "queue".
+         * @return Flow control policy.
+         */
+        public static Policy fromName(String name) {
+            return name == null ? QUEUE : valueOf(name.toUpperCase());
+        }
+    }
+
+    public FlowControl(int nodeId, Transport transport, NeighborIndex neighbors, NodeMetrics metrics, Policy policy, int window) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.neighbors = neighbors;
+        this.metrics = metrics;
+        this.policy = policy;
+        this.window = Math.max(0, window);
+        this.creditBatch = Math.max(1, this.window / 2);
+        this.channels = new Channel[neighbors.size()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new Channel(neighbors.idAt(i));
+        }
+        this.uncredited = new AtomicIntegerArray(neighbors.size());
+    }
+
+    /**
+     * Checks if transfers are flow controlled.
+     *
+     * @return True if a window is configured, false otherwise.
+     */
+    public boolean isEnabled() {
+        return window > 0;
+    }
+
+    /**
+     * Admits a transfer to a neighbor before it is debited. Under BLOCK this waits for a credit and
+     * under FAIL it takes one if there is any; either way the credit is reserved for the transfer.
+     * Under QUEUE nothing is reserved and every transfer is admitted.
+     * Must not be called while holding the runtime's state lock, since the credit comes from a
+     * message that the runtime has to handle.
+     *
+     * @param neighborId ID of the neighbor.
+     * @return False if the transfer is rejected for lack of credit, true otherwise.
+     * @throws InterruptedException If interrupted while waiting for credit.
+     */
+    public boolean admit(int neighborId) throws InterruptedException {
+        Channel channel = channelOf(neighborId);
+        if (!isEnabled() || channel == null || policy == Policy.QUEUE) {
+            return true;
+        }
+
+        channel.lock.lock();
+        try {
+            if (policy == Policy.FAIL && channel.credits == 0) {
+                channel.startThrottle();
+                metrics.flowRejected();
+                return false;
+            }
+            while (channel.credits == 0) {
+                channel.startThrottle();
+                channel.credited.await();
+            }
+            channel.credits--;
+            return true;
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the credit reserved by admit for a transfer that was not sent after all.
+     *
+     * @param neighborId ID of the neighbor.
+     */
+    public void cancel(int neighborId) {
+        Channel channel = channelOf(neighborId);
+        if (!isEnabled() || channel == null || policy == Policy.QUEUE) {
+            return;
+        }
+        channel.lock.lock();
+        try {
+            channel.credits++;
+            channel.credited.signal();
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message to a neighbor, or holds it behind the transfers already waiting for credit.
+     * A TRANSFER sent under BLOCK or FAIL must have been admitted first.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param message    Message to send.
+     * @throws IOException If the neighbor cannot be reached.
+     */
+    public void send(int neighborId, Message message) throws IOException {
+        Channel channel = channelOf(neighborId);
+        inFlight.sent();
+        if (!isEnabled() || channel == null) {
+            try {
+                transport.send(neighborId, message);
+            } catch (IOException e) {
+                inFlight.settled(1);
+                throw e;
+            }
+            return;
+        }
+
+        boolean transfer = "TRANSFER".equals(message.type());
+        boolean reserved = transfer && policy != Policy.QUEUE;
+        channel.lock.lock();
+        try {
+            if (channel.pending.isEmpty()) {
+                if (!transfer || reserved) {
+                    sendReserved(channel, message, reserved);
+                    return;
+                }
+                if (channel.credits > 0) {
+                    channel.credits--;
+                    sendReserved(channel, message, true);
+                    return;
+                }
+                channel.startThrottle();
+            } else if (reserved) {
+                channel.credits++;
+            }
+            channel.pending.add(message);
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds credits returned by a neighbor and sends whatever was waiting for them, in order.
+     *
+     * @param neighborId ID of the neighbor that returned the credits.
+     * @param credits    Number of credits.
+     * @return Held transfers that could not be handed to the transport.
+     */
+    public List<Message> onCredit(int neighborId, int credits) {
+        Channel channel = channelOf(neighborId);
+        List<Message> failed = new ArrayList<>();
+        if (channel == null) {
+            return failed;
+        }
+
+        channel.lock.lock();
+        try {
+            channel.credits += credits;
+            Message head;
+            while ((head = channel.pending.peek()) != null) {
+                boolean transfer = "TRANSFER".equals(head.type());
+                if (transfer && channel.credits == 0) {
+                    break;
+                }
+                channel.pending.poll();
+                if (transfer) {
+                    channel.credits--;
+                }
+                try {
+                    transport.send(neighborId, head);
+                } catch (IOException e) {
+                    inFlight.settled(1);
+                    metrics.sendFailed(neighborId);
+                    if (transfer) {
+                        channel.credits++;
+                        failed.add(head);
+                    }
+                }
+            }
+            if (channel.pending.isEmpty() && channel.credits > 0) {
+                channel.endThrottle();
+            }
+            channel.credited.signalAll();
+        } finally {
+            channel.lock.unlock();
+        }
+        return failed;
+    }
+
+    /**
+     * Counts a transfer handled from a neighbor and returns credit to it once half a window is used up.
+     *
+     * @param senderId ID of the neighbor that sent the transfer.
+     */
+    public void onTransferHandled(int senderId) {
+        int index = neighbors.indexOf(senderId);
+        if (!isEnabled() || index < 0) {
+            return;
+        }
+        int handled = uncredited.incrementAndGet(index);
+        if (handled >= creditBatch && uncredited.compareAndSet(index, handled, 0)) {
+            inFlight.sent();
+            try {
+                transport.send(senderId, new Message(CREDIT, nodeId, String.valueOf(handled)));
+                metrics.messageSent(CREDIT);
+            } catch (IOException e) {
+                inFlight.settled(1);
+                uncredited.addAndGet(index, handled);
+                metrics.sendFailed(senderId);
+            }
+        }
+    }
+
+    /**
+     * Hands a message to the transport, giving a reserved credit back if that fails.
+     * Must be called holding the channel's lock.
+     *
+     * @param channel  Channel to send on.
+     * @param message  Message to send.
+     * @param reserved True if a credit was taken for the message.
+     * @throws IOException If the neighbor cannot be reached.
+     */
+    private void sendReserved(Channel channel, Message message, boolean reserved) throws IOException {
+        try {
+            transport.send(channel.neighborId, message);
+        } catch (IOException e) {
+            inFlight.settled(1);
+            if (reserved) {
+                channel.credits++;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the channel to a neighbor.
+     *
+     * @param neighborId ID of the neighbor.
+     * @return Channel, or null if the node is not a neighbor.
+     */
+    private Channel channelOf(int neighborId) {
+        int index = neighbors.indexOf(neighborId);
+        return index < 0 ? null : channels[index];
+    }
+
+    private final class Channel {
+        private final int neighborId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition credited = lock.newCondition();
+        private final ArrayDeque<Message> pending = new ArrayDeque<>();
+        private int credits = window;
+        private long throttledSince = -1;
+
+        private Channel(int neighborId) {
+            this.neighborId = neighborId;
+        }
+
+        /**
+         * Marks the channel as throttled, if it is not already. Must be called holding the lock.
+         */
+        private void startThrottle() {
+            if (throttledSince < 0) {
+                throttledSince = System.nanoTime();
+            }
+        }
+
+        /**
+         * Ends a throttled period and records its length. Must be called holding the lock.
+         */
+        private void endThrottle() {
+            if (throttledSince >= 0) {
+                metrics.throttled(neighborId, System.nanoTime() - throttledSince);
+                throttledSince = -1;
+            }
+        }
+    }
+}
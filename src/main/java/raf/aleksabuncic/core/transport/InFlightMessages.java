@@ -0,0 +1,77 @@
+package raf.aleksabuncic.core.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the messages of this JVM's nodes that were handed to flow control but not yet handled or
+ * dropped. A message is always counted before the handler of the message that caused it finishes,
+ * so the count only reaches zero once the network is quiescent. Messages to nodes running in
+ * another JVM are never handled here, so quiescence is only meaningful when all nodes share one JVM.
+ */
+public class InFlightMessages {
+    private static final InFlightMessages SHARED = new InFlightMessages();
+
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * Returns the counter shared by all runtimes of this JVM.
+     *
+     * @return Shared counter.
+     */
+    public static InFlightMessages shared() {
+        return SHARED;
+    }
+
+    /**
+     * Counts a message about to be sent.
+     */
+    public void sent() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Counts messages that were handled, or that will never arrive.
+     *
+     * @param count Number of messages.
+     */
+    public void settled(int count) {
+        long remaining = inFlight.addAndGet(-count);
+        if (remaining <= 0 && remaining + count > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of messages in flight.
+     *
+     * @return Number of messages sent but not yet handled.
+     */
+    public long get() {
+        return inFlight.get();
+    }
+
+    /**
+     * Waits until no messages are in flight.
+     *
+     * @param timeout Longest time to wait.
+     * @param unit    Unit of the timeout.
+     * @return True if the network became quiescent, false if the timeout passed first.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            long remaining;
+            while (inFlight.get() > 0) {
+                if ((remaining = deadline - System.nanoTime()) <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+}
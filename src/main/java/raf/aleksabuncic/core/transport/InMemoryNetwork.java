@@ -0,0 +1,49 @@
+package raf.aleksabuncic.core.transport;
+
+import raf.aleksabuncic.core.NodeRuntime;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemoryNetwork {
+    private static final InMemoryNetwork SHARED = new InMemoryNetwork();
+
+    private final Map<Integer, NodeRuntime> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the network shared by all in-memory transports of this JVM.
+     *
+     * @return Shared network.
+     */
+    public static InMemoryNetwork shared() {
+        return SHARED;
+    }
+
+    /**
+     * Makes a node reachable through this network.
+     *
+     * @param runtime Runtime of the node.
+     */
+    public void register(NodeRuntime runtime) {
+        nodes.put(runtime.getId(), runtime);
+    }
+
+    /**
+     * Removes a node from this network.
+     *
+     * @param nodeId ID of the node.
+     */
+    public void unregister(int nodeId) {
+        nodes.remove(nodeId);
+    }
+
+    /**
+     * Looks up a registered node.
+     *
+     * @param nodeId ID of the node.
+     * @return Runtime of the node, or null if it is not registered.
+     */
+    public NodeRuntime lookup(int nodeId) {
+        return nodes.get(nodeId);
+    }
+}
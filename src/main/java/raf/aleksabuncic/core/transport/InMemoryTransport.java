@@ -0,0 +1,97 @@
+package raf.aleksabuncic.core.transport;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.Message;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InMemoryTransport implements Transport {
+    private static final int DRAIN_BATCH = 64;
+
+    private final InMemoryNetwork network;
+    private final Executor executor;
+    private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+    private int nodeId;
+
+    public InMemoryTransport(InMemoryNetwork network, Executor executor) {
+        this.network = network;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> start(NodeRuntime runtime) {
+        nodeId = runtime.getId();
+        network.register(runtime);
+        runtime.getLogger().info("Registered on in-memory network");
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void send(int neighborId, Message message) throws IOException {
+        Channel channel = channels.get(neighborId);
+        if (channel == null) {
+            NodeRuntime target = network.lookup(neighborId);
+            if (target == null) {
+                throw new IOException("Node " + neighborId + " is not registered in memory");
+            }
+            channel = channels.computeIfAbsent(neighborId, id -> new Channel(target));
+        }
+        channel.enqueue(message);
+    }
+
+    @Override
+    public void close() {
+        network.unregister(nodeId);
+        channels.clear();
+    }
+
+    private final class Channel {
+        private final NodeRuntime target;
+        private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Channel(NodeRuntime target) {
+            this.target = target;
+        }
+
+        /**
+         * Queues a message and makes sure a delivery task is running for this channel.
+         *
+         * @param message Message to queue.
+         */
+        private void enqueue(Message message) {
+            queue.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Delivers queued messages to the target in order. Only one delivery task runs per channel at a time.
+         */
+        private void deliver() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Message message = queue.poll();
+                if (message == null) {
+                    break;
+                }
+                try {
+                    target.handleMessage(message);
+                } catch (Exception e) {
+                    target.getLogger().error("Failed to handle {}: {}", message, e);
+                }
+            }
+            scheduled.set(false);
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::deliver);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package raf.aleksabuncic.core.transport;
+
+import lombok.Getter;
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.Threads;
+import raf.aleksabuncic.core.handler.ConnectionHandler;
+import raf.aleksabuncic.core.handler.ConnectionManager;
+import raf.aleksabuncic.core.handler.NioConnectionHandler;
+import raf.aleksabuncic.core.metrics.NodeMetrics;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.NeighborIndex;
+import raf.aleksabuncic.types.NodeSettings;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public class TcpTransport implements Transport {
+    @Getter
+    private final ConnectionManager connections;
+
+    public TcpTransport(NeighborIndex neighbors, NodeSettings settings, Executor executor, NodeMetrics metrics,
+                        UndeliveredHandler undelivered) {
+        this.connections = new ConnectionManager("localhost", neighbors, settings, executor, metrics, undelivered);
+    }
+
+    @Override
+    public CompletableFuture<Void> start(NodeRuntime runtime) {
+        NodeSettings settings = runtime.getNodeModel().getSettings();
+        int port = runtime.getNodeModel().getPort();
+        String name = "listener-" + runtime.getId();
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        if (settings.isNioServer()) {
+            Threads.start(false, name, new NioConnectionHandler(runtime, port, settings, listening));
+        } else {
+            Threads.start(settings.isVirtualThreads(), name, new ConnectionHandler(runtime, port, listening));
+        }
+        return listening;
+    }
+
+    @Override
+    public void send(int neighborId, Message message) throws IOException {
+        connections.send(neighborId, message);
+    }
+
+    @Override
+    public void close() {
+        connections.closeAll();
+    }
+}
@@ -0,0 +1,32 @@
+package raf.aleksabuncic.core.transport;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.Message;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+public interface Transport {
+    /**
+     * Starts delivering inbound messages to the runtime.
+     *
+     * @param runtime Runtime that owns this transport.
+     * @return Future that completes once neighbors can reach the runtime, or fails if they never will.
+     */
+    CompletableFuture<Void> start(NodeRuntime runtime);
+
+    /**
+     * Hands a message to the outbound path for a neighbor without blocking on the network.
+     * Messages to the same neighbor are delivered in call order.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param message    Message to send.
+     * @throws IOException If the neighbor cannot be reached.
+     */
+    void send(int neighborId, Message message) throws IOException;
+
+    /**
+     * Releases outbound resources held by the transport.
+     */
+    void close();
+}
@@ -0,0 +1,20 @@
+package raf.aleksabuncic.core.transport;
+
+import raf.aleksabuncic.types.Message;
+
+import java.util.List;
+
+/**
+ * Receives messages that a transport accepted but later failed to deliver, so the node can undo
+ * their effects.
+ */
+@FunctionalInterface
+public interface UndeliveredHandler {
+    /**
+     * Called on the transport's outbound path after a write to a neighbor failed.
+     *
+     * @param neighborId ID of the neighbor.
+     * @param messages   Messages that were not delivered, in send order.
+     */
+    void undelivered(int neighborId, List<Message> messages);
+}
@@ -1,8 +1,12 @@
 package raf.aleksabuncic.manual;
 
 import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.output.CheckpointLog;
+import raf.aleksabuncic.core.output.CheckpointLogs;
+import raf.aleksabuncic.types.SnapshotReport;
 
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 public class CliThread extends Thread {
     private final NodeRuntime runtime;
@@ -40,8 +44,15 @@ public class CliThread extends Thread {
 
                 case "snapshot":
                     try {
-                        runtime.startSnapshot();
-                        System.out.println("Snapshot initiated successfully.");
+                        CompletableFuture<SnapshotReport> started = runtime.startSnapshot();
+                        if (started.isCompletedExceptionally()) {
+                            started.exceptionally(e -> {
+                                System.out.println("Failed to initiate snapshot: " + e.getMessage());
+                                return null;
+                            });
+                        } else {
+                            System.out.println("Snapshot initiated successfully.");
+                        }
                     } catch (Exception e) {
                         System.out.println("Failed to initiate snapshot: " + e.getMessage());
                     }
@@ -51,6 +62,25 @@ public class CliThread extends Thread {
                     System.out.println("Bitcake balance: " + runtime.getBitcake());
                     break;
 
+                case "checkpoint":
+                    if (!runtime.getNodeModel().getSettings().isIncrementalCheckpoints()) {
+                        System.out.println("Incremental checkpoints are not enabled.");
+                        break;
+                    }
+                    CheckpointLog checkpointLog = CheckpointLogs.forNode(runtime.getId(), runtime.getNodeModel().getSettings());
+                    CheckpointLog.Checkpoint restored = checkpointLog.restore();
+                    if (restored == null) {
+                        System.out.println("No committed checkpoint.");
+                    } else {
+                        System.out.println("Checkpoint " + restored.snapshotId() + " | Bitcakes: " + restored.bitcake()
+                                + " | Deltas since base: " + restored.deltas() + " | Consistent: " + checkpointLog.verify());
+                    }
+                    break;
+
+                case "metrics":
+                    System.out.println(runtime.getMetrics());
+                    break;
+
                 case "exit":
                     System.out.println("Exiting...");
                     System.exit(0);
@@ -71,6 +101,8 @@ public class CliThread extends Thread {
         System.out.println("  send <targetNodeId> <amount> - Send bitcakes to neighbor");
         System.out.println("  snapshot - Initiate snapshot");
         System.out.println("  print - Print current bitcake state");
+        System.out.println("  checkpoint - Restore and check the last committed checkpoint");
+        System.out.println("  metrics - Print node metrics");
         System.out.println("  exit - Exit node");
     }
 }
\ No newline at end of file
@@ -6,9 +6,8 @@ import raf.aleksabuncic.types.Node;
 import raf.aleksabuncic.core.snapshot.AcharyaBadrinathSnapshot;
 import raf.aleksabuncic.core.snapshot.AlagarVenkatesanSnapshot;
 import raf.aleksabuncic.core.snapshot.CoordinatedCheckpointingSnapshot;
+import raf.aleksabuncic.core.snapshot.LaiYangSnapshot;
 
-import java.util.HashMap;
-import java.util.Map;
 
 public class Starter {
     public static void main(String[] args) {
@@ -28,15 +27,16 @@ public class Starter {
             return;
         }
 
-        Map<Integer, Integer> neighborPortMap = new HashMap<>();
-        for (int neighborId : selfNode.getNeighbors()) {
-            Node neighbor = config.allNodes.get(neighborId);
-            if (neighbor != null) {
-                neighborPortMap.put(neighborId, neighbor.getPort());
-            }
+        if (selfNode.getSettings().isInMemoryTransport()) {
+            System.out.println("In-memory transport only works inside a single JVM, using tcp.");
+            selfNode.getSettings().setTransport("tcp");
         }
 
-        NodeRuntime runtime = new NodeRuntime(selfNode, neighborPortMap);
+        // Each process owns its snapshot store, so separate processes never write the same files.
+        selfNode.getSettings().setStoreDirectory(selfNode.getSettings().getStoreDirectory() + "/node-" + nodeId);
+
+        NodeRuntime runtime = new NodeRuntime(selfNode, config.topology);
+        runtime.setExpectedTotal(config.totalBitcakes);
 
         switch (config.snapshotType) {
             case "ab":
@@ -48,11 +48,14 @@ public class Starter {
             case "kc":
                 runtime.setSnapshot(new CoordinatedCheckpointingSnapshot(runtime));
                 break;
+            case "ly":
+                runtime.setSnapshot(new LaiYangSnapshot(runtime));
+                break;
             default:
                 System.out.println("Unknown snapshot type.");
         }
 
-        runtime.start();
+        runtime.start().join();
 
         CliThread cliThread = new CliThread(runtime);
         cliThread.start();
@@ -0,0 +1,63 @@
+package raf.aleksabuncic.simulation;
+
+import java.util.PriorityQueue;
+
+/**
+ * Single-threaded discrete-event loop with a virtual clock in nanoseconds. Events run in time
+ * order, and events due at the same time run in the order they were scheduled, so a run is fully
+ * determined by its inputs.
+ */
+public class EventLoop {
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+    private long processed = 0;
+
+    /**
+     * Gets the current virtual time.
+     *
+     * @return Virtual time in nanoseconds.
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Gets the number of events run so far.
+     *
+     * @return Number of events.
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Schedules an action at a virtual time. Times in the past are moved to the current time.
+     *
+     * @param time   Virtual time in nanoseconds.
+     * @param action Action to run.
+     */
+    public void schedule(long time, Runnable action) {
+        events.add(new Event(Math.max(time, now), sequence++, action));
+    }
+
+    /**
+     * Runs events until none are left.
+     */
+    public void run() {
+        Event event;
+        while ((event = events.poll()) != null) {
+            now = event.time();
+            event.action().run();
+            processed++;
+        }
+    }
+
+    private record Event(long time, long sequence, Runnable action) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package raf.aleksabuncic.simulation;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.SimulationSettings;
+import raf.aleksabuncic.types.Topology;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network of simulated nodes on one event loop. Every message gets a delay drawn uniformly between
+ * the configured bounds from one seeded random source, and is delivered as an event at the send
+ * time plus that delay, but never before the previous message on the same channel.
+ */
+public class SimulatedNetwork {
+    private final EventLoop loop;
+    private final Topology topology;
+    private final NodeRuntime[] nodes;
+    private final SplittableRandom random;
+    private final long minDelayNanos;
+    private final long delaySpreadNanos;
+    private final Map<String, Long> messagesByType = new TreeMap<>();
+
+    public SimulatedNetwork(EventLoop loop, Topology topology, SimulationSettings settings) {
+        this.loop = loop;
+        this.topology = topology;
+        this.nodes = new NodeRuntime[topology.size()];
+        this.random = new SplittableRandom(settings.getSeed());
+        this.minDelayNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, settings.getMinDelayMicros()));
+        this.delaySpreadNanos = Math.max(0, TimeUnit.MICROSECONDS.toNanos(settings.getMaxDelayMicros()) - minDelayNanos);
+    }
+
+    /**
+     * Makes a node reachable through this network.
+     *
+     * @param runtime Runtime of the node.
+     */
+    public void register(NodeRuntime runtime) {
+        int index = topology.indexOf(runtime.getId());
+        if (index < 0) {
+            throw new IllegalArgumentException("Node " + runtime.getId() + " is not part of the topology");
+        }
+        nodes[index] = runtime;
+    }
+
+    /**
+     * Looks up a registered node.
+     *
+     * @param nodeId ID of the node.
+     * @return Runtime of the node, or null if it is not registered.
+     */
+    public NodeRuntime lookup(int nodeId) {
+        int index = topology.indexOf(nodeId);
+        return index < 0 ? null : nodes[index];
+    }
+
+    /**
+     * Schedules the delivery of a message.
+     *
+     * @param target    Node to deliver to.
+     * @param message   Message to deliver.
+     * @param notBefore Arrival time of the previous message on the same channel.
+     * @return Arrival time of this message.
+     */
+    public long deliver(NodeRuntime target, Message message, long notBefore) {
+        long delay = minDelayNanos + (delaySpreadNanos == 0 ? 0 : random.nextLong(delaySpreadNanos + 1));
+        long arrival = Math.max(loop.now() + delay, notBefore);
+        loop.schedule(arrival, () -> target.handleMessage(message));
+        messagesByType.merge(message.type(), 1L, Long::sum);
+        return arrival;
+    }
+
+    /**
+     * Gets the number of messages sent so far, per message type.
+     *
+     * @return Message counts by type.
+     */
+    public Map<String, Long> getMessagesByType() {
+        return messagesByType;
+    }
+}
@@ -0,0 +1,45 @@
+package raf.aleksabuncic.simulation;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.transport.Transport;
+import raf.aleksabuncic.types.Message;
+import raf.aleksabuncic.types.NeighborIndex;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport of one node on a simulated network. Sending only schedules the delivery event, and the
+ * arrival time of the last message on each channel is kept by neighbor position to keep channels FIFO.
+ */
+public class SimulatedTransport implements Transport {
+    private final SimulatedNetwork network;
+    private NeighborIndex neighbors;
+    private long[] lastArrival;
+
+    public SimulatedTransport(SimulatedNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public CompletableFuture<Void> start(NodeRuntime runtime) {
+        this.neighbors = runtime.getNeighborIndex();
+        this.lastArrival = new long[neighbors.size()];
+        network.register(runtime);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void send(int neighborId, Message message) throws IOException {
+        int index = neighbors.indexOf(neighborId);
+        NodeRuntime target = network.lookup(neighborId);
+        if (index < 0 || target == null) {
+            throw new IOException("Node " + neighborId + " is not part of the simulation");
+        }
+        lastArrival[index] = network.deliver(target, message, lastArrival[index]);
+    }
+
+    @Override
+    public void close() {
+    }
+}
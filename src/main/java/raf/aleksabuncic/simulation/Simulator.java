@@ -0,0 +1,213 @@
+package raf.aleksabuncic.simulation;
+
+import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.handler.ConfigHandler;
+import raf.aleksabuncic.core.log.Loggers;
+import raf.aleksabuncic.core.output.CheckpointLogs;
+import raf.aleksabuncic.core.output.OutputWriters;
+import raf.aleksabuncic.core.output.SnapshotStores;
+import raf.aleksabuncic.core.snapshot.AcharyaBadrinathSnapshot;
+import raf.aleksabuncic.core.snapshot.AlagarVenkatesanSnapshot;
+import raf.aleksabuncic.core.snapshot.CoordinatedCheckpointingSnapshot;
+import raf.aleksabuncic.core.snapshot.LaiYangSnapshot;
+import raf.aleksabuncic.types.Node;
+import raf.aleksabuncic.types.NodeSettings;
+import raf.aleksabuncic.types.SimulationSettings;
+import raf.aleksabuncic.types.SnapshotId;
+import raf.aleksabuncic.types.SnapshotReport;
+import raf.aleksabuncic.types.WorkloadSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the configured nodes and workload as a deterministic discrete-event simulation.
+ * <p>
+ * Every node is a regular NodeRuntime with its regular snapshot strategy, but its transport hands
+ * messages to a simulated network on a single-threaded event loop, and its clock is the loop's
+ * virtual clock. Transfers follow the workload block in virtual time, and the run ends once no
+ * messages are left in flight, so large topologies finish as fast as the events can be processed.
+ * <p>
+ * JMX metrics are turned off and the log level comes from the "simulation" block, since both are
+ * per node. The block flow control policy would stall the single loop thread, so it is replaced with queue.
+ */
+public class Simulator {
+    private final List<SimulationReport.SnapshotResult> snapshots = new ArrayList<>();
+    private EventLoop loop;
+    private long expectedTotal;
+    private int nodeCount;
+    private long attemptedTransfers = 0;
+    private long sentTransfers = 0;
+
+    public static void main(String[] args) throws Exception {
+        SimulationReport report = new Simulator().run(args.length > 0 ? args[0] : "instructions/config.json");
+        if (report != null) {
+            report.print(System.out);
+        }
+    }
+
+    /**
+     * Loads a configuration and simulates its workload.
+     *
+     * @param configPath Path to the configuration file.
+     * @return Report of the run, or null if the configuration has no workload.
+     * @throws InterruptedException If the calling thread is interrupted while background writes finish.
+     */
+    public SimulationReport run(String configPath) throws InterruptedException {
+        ConfigHandler.ConfigResult config = ConfigHandler.load(configPath);
+        if (config.workload == null) {
+            System.out.println("Simulation needs a workload block in " + configPath);
+            return null;
+        }
+        SimulationSettings simulation = config.simulation != null ? config.simulation : new SimulationSettings();
+        prepareSettings(config, simulation);
+        expectedTotal = config.totalBitcakes;
+        nodeCount = config.topology.size();
+
+        loop = new EventLoop();
+        SimulatedNetwork network = new SimulatedNetwork(loop, config.topology, simulation);
+        ExecutorService background = Executors.newSingleThreadExecutor(task -> new Thread(task, "simulation-background"));
+        List<NodeRuntime> runtimes = new ArrayList<>(config.topology.size());
+        try {
+            for (int i = 0; i < config.topology.size(); i++) {
+                Node node = config.allNodes.get(config.topology.idAt(i));
+                NodeRuntime runtime = new NodeRuntime(node, config.topology, new SimulatedTransport(network), background);
+                runtime.setExpectedTotal(config.totalBitcakes);
+                runtime.setClock(loop::now);
+                runtime.setSnapshotListener(this::recordSnapshot);
+
+                switch (config.snapshotType.toLowerCase()) {
+                    case "ab" -> runtime.setSnapshot(new AcharyaBadrinathSnapshot(runtime));
+                    case "av" -> runtime.setSnapshot(new AlagarVenkatesanSnapshot(runtime));
+                    case "kc" -> runtime.setSnapshot(new CoordinatedCheckpointingSnapshot(runtime));
+                    case "ly" -> runtime.setSnapshot(new LaiYangSnapshot(runtime));
+                    default -> throw new IllegalArgumentException("Unknown snapshot type: " + config.snapshotType);
+                }
+
+                runtime.start();
+                runtimes.add(runtime);
+            }
+            System.out.println("Simulating " + runtimes.size() + " nodes...");
+
+            int snapshotsStarted = scheduleWorkload(runtimes, config.workload);
+            long start = System.nanoTime();
+            loop.run();
+            long wall = System.nanoTime() - start;
+
+            return new SimulationReport(runtimes.size(), loop.getProcessed(), loop.now(), wall, attemptedTransfers,
+                    sentTransfers, snapshotsStarted, snapshots, network.getMessagesByType());
+        } finally {
+            background.shutdown();
+            background.awaitTermination(1, TimeUnit.MINUTES);
+            CheckpointLogs.closeAll();
+            SnapshotStores.closeAll();
+            OutputWriters.closeAll();
+            Loggers.closeAll();
+        }
+    }
+
+    /**
+     * Adjusts every distinct settings object of the configuration for a single-threaded run.
+     *
+     * @param config     Loaded configuration.
+     * @param simulation Simulation block.
+     */
+    private static void prepareSettings(ConfigHandler.ConfigResult config, SimulationSettings simulation) {
+        Set<NodeSettings> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Node node : config.allNodes.values()) {
+            NodeSettings settings = node.getSettings();
+            if (!seen.add(settings)) {
+                continue;
+            }
+            settings.setJmxMetrics(false);
+            settings.setLogLevel(simulation.getLogLevel());
+            if ("block".equalsIgnoreCase(settings.getFlowPolicy())) {
+                System.out.println("The block flow policy cannot wait on a single thread, using queue.");
+                settings.setFlowPolicy("queue");
+            }
+        }
+    }
+
+    /**
+     * Schedules the transfers of every node and the snapshot initiations in virtual time. Each node
+     * sends at the configured rate, starting at a seeded offset within its first period.
+     *
+     * @param runtimes Runtimes in ascending ID order.
+     * @param settings Workload block.
+     * @return Number of snapshots scheduled.
+     */
+    private int scheduleWorkload(List<NodeRuntime> runtimes, WorkloadSettings settings) {
+        long deadline = TimeUnit.MILLISECONDS.toNanos(settings.getDurationMillis());
+        if (settings.getTransfersPerSecond() > 0) {
+            long period = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / settings.getTransfersPerSecond()));
+            for (NodeRuntime runtime : runtimes) {
+                if (runtime.getNodeModel().getNeighborCount() == 0) {
+                    continue;
+                }
+                SplittableRandom random = new SplittableRandom(settings.getSeed() * 31 + runtime.getId());
+                scheduleSend(runtime, settings, random, random.nextLong(period), period, deadline, 0);
+            }
+        }
+
+        int started = 0;
+        if (settings.isSnapshotting()) {
+            List<Integer> ids = new ArrayList<>(runtimes.size());
+            for (NodeRuntime runtime : runtimes) {
+                ids.add(runtime.getId());
+            }
+            SplittableRandom random = new SplittableRandom(settings.getSeed());
+            long interval = TimeUnit.MILLISECONDS.toNanos(settings.getSnapshotIntervalMillis());
+            for (long next = interval; next < deadline; next += interval) {
+                NodeRuntime runtime = runtimes.get(Collections.binarySearch(ids, settings.pickInitiator(ids, random, started)));
+                loop.schedule(next, runtime::startSnapshot);
+                started++;
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Schedules one transfer of a node, which schedules the next one when it runs.
+     *
+     * @param runtime  Node to send from.
+     * @param settings Workload block.
+     * @param random   Random source of the node.
+     * @param time     Virtual time of the transfer.
+     * @param period   Time between transfers of the node.
+     * @param deadline End of the load phase.
+     * @param round    Number of transfers the node attempted so far.
+     */
+    private void scheduleSend(NodeRuntime runtime, WorkloadSettings settings, SplittableRandom random, long time,
+                              long period, long deadline, int round) {
+        if (time >= deadline) {
+            return;
+        }
+        loop.schedule(time, () -> {
+            int neighborId = settings.pickDestination(runtime.getNodeModel().getNeighbors(), random, round);
+            attemptedTransfers++;
+            if (runtime.trySendBitcakes(neighborId, settings.pickAmount(random))) {
+                sentTransfers++;
+            }
+            scheduleSend(runtime, settings, random, time + period, period, deadline, round + 1);
+        });
+    }
+
+    /**
+     * Records an assembled snapshot with its virtual completion time.
+     *
+     * @param snapshotId   ID of the snapshot.
+     * @param report       Assembled global result.
+     * @param elapsedNanos Virtual time from initiation to assembly.
+     */
+    private void recordSnapshot(SnapshotId snapshotId, SnapshotReport report, long elapsedNanos) {
+        snapshots.add(new SimulationReport.SnapshotResult(snapshotId, loop.now(), elapsedNanos, report.messages(),
+                report.bitcakes(), report.inTransit(), report.nodes() == nodeCount && report.total() == expectedTotal));
+    }
+}
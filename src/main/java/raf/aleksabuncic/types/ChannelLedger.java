@@ -0,0 +1,169 @@
+package raf.aleksabuncic.types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Channel states of one snapshot, computed from the sent and received totals the nodes recorded.
+ * A channel's state is what its sender recorded as sent on it minus what its receiver recorded as
+ * received from it. Each node adds its own ends of its channels, and a channel is settled by the
+ * first node whose subtree holds both ends; ends still open travel up in the subtree's report.
+ * Ends that are zero are left out, so the initiator settles whatever is still open against zero.
+ * <p>
+ * A settled channel that received more than was sent holds a transfer sent after its sender
+ * recorded but received before its receiver did, so the recorded cut is not consistent. Such
+ * channels add nothing to the amount in transit, which makes the snapshot total miss the expected one.
+ */
+public class ChannelLedger {
+    private final Map<Long, Long> sent = new HashMap<>();
+    private final Map<Long, Long> received = new HashMap<>();
+    private final List<ChannelState> settled = new ArrayList<>();
+    private long inTransit = 0;
+
+    /**
+     * Adds the ends of a node's channels from its recorded state.
+     *
+     * @param nodeId    ID of the node.
+     * @param neighbors Neighbors of the node, by position.
+     * @param state     Recorded state of the node.
+     */
+    public void addLocal(int nodeId, NeighborIndex neighbors, LocalState state) {
+        for (int i = 0; i < neighbors.size(); i++) {
+            int neighborId = neighbors.idAt(i);
+            addSent(nodeId, neighborId, state.sentTo(i));
+            addReceived(neighborId, nodeId, state.receivedFrom(i));
+        }
+    }
+
+    /**
+     * Adds the open channel ends of a child's subtree, as written by toContent.
+     *
+     * @param content Report content.
+     */
+    public void addReport(String content) {
+        String[] parts = content.split(":");
+        if (parts.length < 7 || parts[6].isEmpty()) {
+            return;
+        }
+        for (String entry : parts[6].split(",")) {
+            String[] fields = entry.substring(1).split("\\.");
+            int from = Integer.parseInt(fields[0]);
+            int to = Integer.parseInt(fields[1]);
+            long amount = Long.parseLong(fields[2]);
+            if (entry.charAt(0) == 'S') {
+                addSent(from, to, amount);
+            } else {
+                addReceived(from, to, amount);
+            }
+        }
+    }
+
+    /**
+     * Settles every channel end still open against zero. Called on the initiator, once the ledger
+     * holds the ends of all nodes.
+     */
+    public void settleOpen() {
+        for (Map.Entry<Long, Long> entry : sent.entrySet()) {
+            settle(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Long, Long> entry : received.entrySet()) {
+            settle(entry.getKey(), -entry.getValue());
+        }
+        sent.clear();
+        received.clear();
+    }
+
+    /**
+     * Gets the sum of the settled channel states that are not negative.
+     *
+     * @return Bitcakes in transit.
+     */
+    public long getInTransit() {
+        return inTransit;
+    }
+
+    /**
+     * Returns the channels settled since the last call, and forgets them.
+     *
+     * @return Settled channels.
+     */
+    public List<ChannelState> drainSettled() {
+        List<ChannelState> drained = new ArrayList<>(settled);
+        settled.clear();
+        return drained;
+    }
+
+    /**
+     * Formats the open channel ends as the last field of report content.
+     *
+     * @return Comma-separated entries "S"/"R" followed by "from.to.amount", or an empty string.
+     */
+    public String toContent() {
+        StringBuilder content = new StringBuilder();
+        appendEntries(content, 'S', sent);
+        appendEntries(content, 'R', received);
+        return content.toString();
+    }
+
+    private void addSent(int from, int to, long amount) {
+        if (amount == 0) {
+            return;
+        }
+        long key = key(from, to);
+        Long other = received.remove(key);
+        if (other != null) {
+            settle(key, amount - other);
+        } else {
+            sent.merge(key, amount, Long::sum);
+        }
+    }
+
+    private void addReceived(int from, int to, long amount) {
+        if (amount == 0) {
+            return;
+        }
+        long key = key(from, to);
+        Long other = sent.remove(key);
+        if (other != null) {
+            settle(key, other - amount);
+        } else {
+            received.merge(key, amount, Long::sum);
+        }
+    }
+
+    private void settle(long key, long amount) {
+        if (amount == 0) {
+            return;
+        }
+        settled.add(new ChannelState((int) (key >>> 32), (int) key, amount));
+        if (amount > 0) {
+            inTransit += amount;
+        }
+    }
+
+    private static void appendEntries(StringBuilder content, char kind, Map<Long, Long> ends) {
+        for (Map.Entry<Long, Long> entry : ends.entrySet()) {
+            if (!content.isEmpty()) {
+                content.append(',');
+            }
+            long key = entry.getKey();
+            content.append(kind).append((int) (key >>> 32)).append('.').append((int) key).append('.').append(entry.getValue());
+        }
+    }
+
+    private static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    /**
+     * State of one settled channel.
+     *
+     * @param from   ID of the sender.
+     * @param to     ID of the receiver.
+     * @param amount Recorded sent minus recorded received; negative if the cut is not consistent.
+     */
+    public record ChannelState(int from, int to, long amount) {
+    }
+}
@@ -0,0 +1,137 @@
+package raf.aleksabuncic.types;
+
+import java.util.BitSet;
+import java.util.function.LongSupplier;
+
+/**
+ * Incoming channel state of one snapshot on one node. Amounts and marker flags are kept in arrays
+ * indexed by neighbor position, and the number of channels still waiting for a marker is kept as a
+ * counter, so recording a transfer and checking completion neither allocate nor scan the neighbors.
+ */
+public class ChannelRecording {
+    private final NeighborIndex neighbors;
+    private final long[] amounts;
+    private final BitSet recorded;
+    private final BitSet closed;
+    private final LongSupplier clock;
+    private final long startNanos;
+    private int remaining;
+
+    public ChannelRecording(NeighborIndex neighbors) {
+        this(neighbors, System::nanoTime);
+    }
+
+    public ChannelRecording(NeighborIndex neighbors, LongSupplier clock) {
+        this.neighbors = neighbors;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+        this.amounts = new long[neighbors.size()];
+        this.recorded = new BitSet(neighbors.size());
+        this.closed = new BitSet(neighbors.size());
+        this.remaining = neighbors.size();
+    }
+
+    /**
+     * Adds a transfer to the channel from the sender if that channel is still being recorded.
+     *
+     * @param senderId ID of the sender.
+     * @param amount   Amount of bitcakes transferred.
+     * @return True if the amount was recorded, false if the channel is already closed or unknown.
+     */
+    public boolean record(int senderId, int amount) {
+        int index = neighbors.indexOf(senderId);
+        if (index < 0 || closed.get(index)) {
+            return false;
+        }
+        amounts[index] += amount;
+        recorded.set(index);
+        return true;
+    }
+
+    /**
+     * Stops recording the channel from the sender, after its marker arrived.
+     *
+     * @param senderId ID of the sender.
+     * @return True if the channel was open, false if it was already closed or unknown.
+     */
+    public boolean close(int senderId) {
+        int index = neighbors.indexOf(senderId);
+        if (index < 0 || closed.get(index)) {
+            return false;
+        }
+        closed.set(index);
+        remaining--;
+        return true;
+    }
+
+    /**
+     * Checks if the marker from a neighbor already arrived.
+     *
+     * @param senderId ID of the neighbor.
+     * @return True if the channel is closed, false otherwise.
+     */
+    public boolean isClosed(int senderId) {
+        int index = neighbors.indexOf(senderId);
+        return index >= 0 && closed.get(index);
+    }
+
+    /**
+     * Checks if markers arrived on every incoming channel.
+     *
+     * @return True if the recording is complete, false otherwise.
+     */
+    public boolean isComplete() {
+        return remaining == 0;
+    }
+
+    /**
+     * Checks if anything was recorded on a channel.
+     *
+     * @param index Position of the neighbor.
+     * @return True if at least one transfer was recorded.
+     */
+    public boolean hasRecorded(int index) {
+        return recorded.get(index);
+    }
+
+    /**
+     * Gets the amount recorded on a channel.
+     *
+     * @param index Position of the neighbor.
+     * @return Recorded amount.
+     */
+    public long amountAt(int index) {
+        return amounts[index];
+    }
+
+    /**
+     * Gets the sum recorded over all channels.
+     *
+     * @return Total amount in transit.
+     */
+    public long total() {
+        long total = 0;
+        for (long amount : amounts) {
+            total += amount;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the time since the recording started.
+     *
+     * @return Elapsed time in nanoseconds.
+     */
+    public long elapsedNanos() {
+        return clock.getAsLong() - startNanos;
+    }
+
+    /**
+     * Gets the neighbor index the recording is laid out by.
+     *
+     * @return Neighbor index.
+     */
+    public NeighborIndex getNeighbors() {
+        return neighbors;
+    }
+}
@@ -0,0 +1,76 @@
+package raf.aleksabuncic.types;
+
+import java.util.Arrays;
+
+/**
+ * Frozen state of a node: the bitcake balance and the totals sent to and received from each
+ * neighbor, by neighbor position. The node keeps these as mutable counters and copies them into a
+ * LocalState only when a snapshot freezes it, so transfers stay constant time and readers of a
+ * frozen state never see a later change.
+ */
+public final class LocalState {
+    private final int bitcake;
+    private final long[] sent;
+    private final long[] received;
+
+    /**
+     * Creates a frozen state. The arrays are kept, not copied.
+     *
+     * @param bitcake  Bitcake balance.
+     * @param sent     Total sent to each neighbor, by position.
+     * @param received Total received from each neighbor, by position.
+     */
+    public LocalState(int bitcake, long[] sent, long[] received) {
+        this.bitcake = bitcake;
+        this.sent = sent;
+        this.received = received;
+    }
+
+    /**
+     * Get the bitcake balance
+     *
+     * @return Bitcake balance
+     */
+    public int getBitcake() {
+        return bitcake;
+    }
+
+    /**
+     * Get the total sent to a neighbor
+     *
+     * @param index Position of the neighbor
+     * @return Total sent
+     */
+    public long sentTo(int index) {
+        return sent[index];
+    }
+
+    /**
+     * Get the total received from a neighbor
+     *
+     * @param index Position of the neighbor
+     * @return Total received
+     */
+    public long receivedFrom(int index) {
+        return received[index];
+    }
+
+    /**
+     * Flattens the state into a vector: the balance, followed by the total sent to and then the total
+     * received from each neighbor, in neighbor position order.
+     *
+     * @return New state vector.
+     */
+    public long[] toVector() {
+        long[] vector = new long[1 + sent.length + received.length];
+        vector[0] = bitcake;
+        System.arraycopy(sent, 0, vector, 1, sent.length);
+        System.arraycopy(received, 0, vector, 1 + sent.length, received.length);
+        return vector;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalState[bitcake=" + bitcake + ", sent=" + Arrays.toString(sent) + ", received=" + Arrays.toString(received) + "]";
+    }
+}
@@ -0,0 +1,102 @@
+package raf.aleksabuncic.types;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Dense numbering of a node's neighbors, so that per-neighbor state can live in primitive arrays
+ * indexed by neighbor position instead of boxed maps. The index is a view of the node's row in the
+ * shared topology: positions follow the row, which holds the neighbors in ascending ID order, and
+ * lookups by ID go through the topology's link table, so nothing is copied per node.
+ */
+public class NeighborIndex {
+    private final Topology topology;
+    private final int node;
+    private final int start;
+    private final int size;
+
+    NeighborIndex(Topology topology, int node) {
+        this.topology = topology;
+        this.node = node;
+        this.start = topology.rowStart(node);
+        this.size = topology.rowEnd(node) - start;
+    }
+
+    /**
+     * Get the position of a neighbor
+     *
+     * @param nodeId ID of the node
+     * @return Position of the neighbor, or -1 if the node is not a neighbor
+     */
+    public int indexOf(int nodeId) {
+        return topology.positionInRow(node, nodeId);
+    }
+
+    /**
+     * Check if a node is a neighbor
+     *
+     * @param nodeId ID of the node
+     * @return True if the node is a neighbor, false if not
+     */
+    public boolean contains(int nodeId) {
+        return indexOf(nodeId) >= 0;
+    }
+
+    /**
+     * Get the ID of the neighbor at a position
+     *
+     * @param index Position of the neighbor
+     * @return Neighbor ID
+     */
+    public int idAt(int index) {
+        return topology.targetIdAt(start + checkIndex(index));
+    }
+
+    /**
+     * Get the port of the neighbor at a position
+     *
+     * @param index Position of the neighbor
+     * @return Neighbor port
+     */
+    public int portAt(int index) {
+        return topology.targetPortAt(start + checkIndex(index));
+    }
+
+    /**
+     * Get the number of neighbors
+     *
+     * @return Number of neighbors
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the neighbors as a list
+     *
+     * @return Read-only view of the neighbor IDs, by position
+     */
+    public List<Integer> asList() {
+        return new IdList();
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return index;
+    }
+
+    private final class IdList extends AbstractList<Integer> implements RandomAccess {
+        @Override
+        public Integer get(int index) {
+            return idAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package raf.aleksabuncic.types;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 @Getter
 public class Node {
@@ -11,16 +16,74 @@ public class Node {
     private final int port;
     @Setter
     private NodeState state;
-    private final ArrayList<Integer> neighbors;
+    @Getter(AccessLevel.NONE)
+    private int[] configuredNeighbors;
+    @Getter(AccessLevel.NONE)
+    private NeighborIndex neighbors;
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger bitcake;
+    @Getter(AccessLevel.NONE)
+    private final AtomicLongArray sent;
+    @Getter(AccessLevel.NONE)
+    private final AtomicLongArray received;
     @Setter
-    private int bitcake;
+    private NodeSettings settings = new NodeSettings();
 
     public Node(int id, int port, int bitcake, ArrayList<Integer> neighbors) {
+        this(id, port, bitcake, neighbors.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public Node(int id, int port, int bitcake, int[] neighbors) {
         this.id = id;
         this.port = port;
         this.state = NodeState.AVAILABLE;
-        this.bitcake = bitcake;
+        this.configuredNeighbors = neighbors;
+        int distinct = (int) Arrays.stream(neighbors).distinct().count();
+        this.bitcake = new AtomicInteger(bitcake);
+        this.sent = new AtomicLongArray(distinct);
+        this.received = new AtomicLongArray(distinct);
+    }
+
+    /**
+     * Replace the configured neighbor list with the node's row of the shared topology. Called once
+     * while the topology is built, before any runtime uses the node.
+     *
+     * @param neighbors Neighbors of the node in the topology
+     */
+    void bindNeighbors(NeighborIndex neighbors) {
         this.neighbors = neighbors;
+        this.configuredNeighbors = null;
+    }
+
+    /**
+     * Get the neighbors of the node
+     *
+     * @return Read-only view of the neighbor IDs
+     */
+    public List<Integer> getNeighbors() {
+        if (neighbors != null) {
+            return neighbors.asList();
+        }
+        return Arrays.stream(configuredNeighbors).boxed().toList();
+    }
+
+    /**
+     * Get the number of neighbors
+     *
+     * @return Number of neighbors
+     */
+    public int getNeighborCount() {
+        return neighbors != null ? neighbors.size() : configuredNeighbors.length;
+    }
+
+    /**
+     * Get the neighbor at a position of the neighbor list
+     *
+     * @param index Position in the list
+     * @return Neighbor ID
+     */
+    public int getNeighborAt(int index) {
+        return neighbors != null ? neighbors.idAt(index) : configuredNeighbors[index];
     }
 
     /**
@@ -32,4 +95,81 @@ public class Node {
         return this.state == NodeState.AVAILABLE;
     }
 
-}
\ No newline at end of file
+    /**
+     * Get the current bitcake balance
+     *
+     * @return Bitcake balance
+     */
+    public int getBitcake() {
+        return bitcake.get();
+    }
+
+    /**
+     * Set the bitcake balance
+     *
+     * @param bitcake New balance
+     */
+    public void setBitcake(int bitcake) {
+        this.bitcake.set(bitcake);
+    }
+
+    /**
+     * Copy the balance and channel totals into an immutable state. The counters are updated
+     * independently, so the copy is only consistent while no debit, credit or refund is running;
+     * the runtime makes sure of that by holding its exclusive state lock.
+     *
+     * @return Copy of the current state
+     */
+    public LocalState copyLocalState() {
+        long[] sentCopy = new long[sent.length()];
+        long[] receivedCopy = new long[received.length()];
+        for (int i = 0; i < sentCopy.length; i++) {
+            sentCopy[i] = sent.get(i);
+            receivedCopy[i] = received.get(i);
+        }
+        return new LocalState(bitcake.get(), sentCopy, receivedCopy);
+    }
+
+    /**
+     * Atomically take bitcakes from the balance for a transfer, if there are enough of them
+     *
+     * @param neighborIndex Position of the neighbor the transfer goes to
+     * @param amount        Amount to take
+     * @return True if the balance was debited, false if it was too low
+     */
+    public boolean tryDebit(int neighborIndex, int amount) {
+        int current;
+        do {
+            current = bitcake.get();
+            if (current < amount) {
+                return false;
+            }
+        } while (!bitcake.compareAndSet(current, current - amount));
+        sent.addAndGet(neighborIndex, amount);
+        return true;
+    }
+
+    /**
+     * Add bitcakes received from a neighbor to the balance
+     *
+     * @param neighborIndex Position of the neighbor, or -1 for unknown senders
+     * @param amount        Amount received
+     */
+    public void credit(int neighborIndex, int amount) {
+        bitcake.addAndGet(amount);
+        if (neighborIndex >= 0) {
+            received.addAndGet(neighborIndex, amount);
+        }
+    }
+
+    /**
+     * Give back the bitcakes of a transfer that was debited but never sent
+     *
+     * @param neighborIndex Position of the neighbor
+     * @param amount        Amount of the transfer
+     */
+    public void refund(int neighborIndex, int amount) {
+        sent.addAndGet(neighborIndex, -amount);
+        bitcake.addAndGet(amount);
+    }
+}
@@ -0,0 +1,99 @@
+package raf.aleksabuncic.types;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class NodeSettings {
+    private String serverMode = "blocking";
+    private int ioThreads = 1;
+    private int workerThreads = 4;
+    private int maxPendingPerConnection = 1024;
+    private String executionMode = "platform";
+    private String codec = "binary";
+    private long batchWindowMicros = 0;
+    private int maxBatchSize = 1;
+    private String transport = "tcp";
+    private String outputDirectory = "output";
+    private String outputSharding = "shared";
+    private String outputFlushPolicy = "idle";
+    private long outputFlushIntervalMillis = 100;
+    private int outputBufferSize = 64 * 1024;
+    private String storeDirectory = "output/store";
+    private int storeIndexCapacity = 4096;
+    private int maxConcurrentSnapshots = 16;
+    private String checkpointMode = "full";
+    private int checkpointBaseInterval = 16;
+    private String triggerDissemination = "flood";
+    private boolean jmxMetrics = true;
+    private String logLevel = "info";
+    private String logTarget = "console";
+    private String logFile = "output/nodes.log";
+    private int logBufferSize = 8192;
+    private int flowWindow = 256;
+    private String flowPolicy = "queue";
+
+    /**
+     * Check if the node should use the selector-based server
+     *
+     * @return True if NIO server mode is selected, false for blocking mode
+     */
+    public boolean isNioServer() {
+        return "nio".equalsIgnoreCase(serverMode);
+    }
+
+    /**
+     * Check if messages should be passed through in-process queues instead of TCP
+     *
+     * @return True if the in-memory transport is selected, false for TCP
+     */
+    public boolean isInMemoryTransport() {
+        return "memory".equalsIgnoreCase(transport);
+    }
+
+    /**
+     * Check if frames encoded with Java serialization may be decoded
+     *
+     * @return True for the java and mixed codecs, false for binary only
+     */
+    public boolean isJavaCodecAccepted() {
+        return "java".equalsIgnoreCase(codec) || "mixed".equalsIgnoreCase(codec);
+    }
+
+    /**
+     * Check if coordinated checkpoints persist only the state that changed since the last committed checkpoint
+     *
+     * @return True for incremental checkpoints, false for full node state every time
+     */
+    public boolean isIncrementalCheckpoints() {
+        return "incremental".equalsIgnoreCase(checkpointMode);
+    }
+
+    /**
+     * Check if Acharya-Badrinath triggers travel along a spanning tree instead of flooding every channel
+     *
+     * @return True for tree dissemination, false for flooding
+     */
+    public boolean isTreeDissemination() {
+        return "tree".equalsIgnoreCase(triggerDissemination);
+    }
+
+    /**
+     * Check if each node writes snapshot output to its own file
+     *
+     * @return True for per-node output files, false for the shared output.txt
+     */
+    public boolean isPerNodeOutput() {
+        return "per-node".equalsIgnoreCase(outputSharding);
+    }
+
+    /**
+     * Check if connection handling and sends should run on virtual threads
+     *
+     * @return True if virtual execution mode is selected, false for platform threads
+     */
+    public boolean isVirtualThreads() {
+        return "virtual".equalsIgnoreCase(executionMode);
+    }
+}
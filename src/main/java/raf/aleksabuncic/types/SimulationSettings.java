@@ -0,0 +1,13 @@
+package raf.aleksabuncic.types;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class SimulationSettings {
+    private long minDelayMicros = 100;
+    private long maxDelayMicros = 1_000;
+    private long seed = 42;
+    private String logLevel = "warn";
+}
@@ -1,23 +1,37 @@
 package raf.aleksabuncic.types;
 
 import raf.aleksabuncic.core.NodeRuntime;
+import raf.aleksabuncic.core.log.Loggers;
+import raf.aleksabuncic.core.log.NodeLogger;
+import raf.aleksabuncic.core.output.SnapshotStore;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class Snapshot {
     protected final NodeRuntime runtime;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final NodeLogger logger;
+    private static final int FINISHED_HISTORY = 1024;
+
+    private final Set<SnapshotId> finishedSnapshots = ConcurrentHashMap.newKeySet();
+    private final Queue<SnapshotId> finishedOrder = new ConcurrentLinkedQueue<>();
+    private int lastSequence = -1;
 
     public Snapshot(NodeRuntime runtime) {
         this.runtime = runtime;
+        this.logger = Loggers.forNode("[Snapshot@Node " + runtime.getId() + "]", runtime.getNodeModel().getSettings());
     }
 
     /**
      * Initializes snapshot.
+     *
+     * @return ID of the snapshot this node started or joined, or null if it could not start one.
      */
-    public abstract void initiate();
+    public abstract SnapshotId initiate();
 
     /**
      * Handles a snapshot-related message.
@@ -27,35 +41,12 @@ public abstract class Snapshot {
     public abstract void handleMessage(Message message);
 
     /**
-     * Writes a line to output/output.txt in a thread-safe manner.
+     * Queues a line for the node's output file. The write happens on the background output writer.
      *
      * @param line Line to write.
      */
     protected void writeToOutput(String line) {
-        File outputFile = new File("output/output.txt");
-        synchronized (Snapshot.class) {
-            try {
-                outputFile.getParentFile().mkdirs();
-                if (!outputFile.exists()) {
-                    outputFile.createNewFile();
-                }
-                try (FileWriter writer = new FileWriter(outputFile, true)) {
-                    writer.write(line + System.lineSeparator());
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-
-    /**
-     * Logs a message to the console.
-     *
-     * @param msg Message to log.
-     */
-    protected void log(String msg) {
-        System.out.println("[Snapshot@Node " + runtime.getId() + "] " + msg);
+        runtime.getOutput().append(line);
     }
 
     /**
@@ -82,29 +73,253 @@ public abstract class Snapshot {
      * @param message Message to buffer.
      */
     protected void bufferMessage(Message message) {
-        log("Buffered message: " + message);
+        logger.debug("Buffered message: {}", message);
     }
 
     /**
      * Sends marker message to all neighbors.
      *
      * @param markerType Type of marker message (e.g., "SNAPSHOT_MARKER")
+     * @param snapshotId ID of the snapshot the marker belongs to.
+     * @param parent     This node's parent in the snapshot's spanning tree, or -1 on the initiator.
+     * @return Number of markers sent.
      */
-    protected void sendMarkerToAllNeighbors(String markerType) {
+    protected int sendMarkerToAllNeighbors(String markerType, SnapshotId snapshotId, int parent) {
         for (int neighborId : runtime.getNodeModel().getNeighbors()) {
-            Message marker = new Message(markerType, getNodeId(), "");
+            Message marker = new Message(markerType, getNodeId(), markerContent(snapshotId, parent));
             runtime.sendMessageTo(neighborId, marker);
         }
+        return runtime.getNodeModel().getNeighbors().size();
+    }
+
+    /**
+     * Formats marker content: the snapshot ID followed by the sender's parent in the spanning tree.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @param parent     Sender's parent, or -1 on the initiator.
+     * @return Content in the form "initiatorId:sequence:parent".
+     */
+    protected static String markerContent(SnapshotId snapshotId, int parent) {
+        return snapshotId + ":" + parent;
+    }
+
+    /**
+     * Reads the sender's parent from marker content.
+     *
+     * @param content Marker content.
+     * @return Sender's parent, or -1 if the marker does not carry one.
+     */
+    protected static int markerParent(String content) {
+        int last = content.lastIndexOf(':');
+        return last > content.indexOf(':') ? Integer.parseInt(content.substring(last + 1)) : -1;
+    }
+
+    /**
+     * Checks if the runtime must hold its exclusive state lock while this snapshot initiates and
+     * handles control messages. Snapshots that order their recording against transfers on the
+     * channels need it. Snapshots that only read the frozen state do not, and then stall transfers
+     * only while the state is copied.
+     *
+     * @return True if control messages are handled under the exclusive state lock.
+     */
+    public boolean requiresStateLock() {
+        return true;
+    }
+
+    /**
+     * Called by the runtime right before a TRANSFER to a neighbor is queued, while it holds the shared
+     * state lock. Snapshots that must put a control message ahead of the transfer do so here.
+     *
+     * @param neighborId ID of the neighbor the transfer goes to.
+     */
+    public void onTransferSending(int neighborId) {
+    }
+
+    /**
+     * Formats the content of an outgoing TRANSFER. Called by the runtime under the shared state lock,
+     * right after onTransferSending. Snapshots that piggyback state on transfers append it here as
+     * ":tag" after the amount.
+     *
+     * @param amount Amount of the transfer.
+     * @return Message content.
+     */
+    public String transferContent(int amount) {
+        return String.valueOf(amount);
+    }
+
+    /**
+     * Checks if a TRANSFER carrying a tag must wait for this node to record first. Called by the
+     * runtime without any lock for every tagged transfer, so it must be cheap.
+     *
+     * @param tag Tag piggybacked on the transfer.
+     * @return True if recordBeforeTransfer has to run before the transfer is handled.
+     */
+    public boolean mustRecordBefore(String tag) {
+        return false;
+    }
+
+    /**
+     * Records the local state before a tagged TRANSFER is handled. Called by the runtime while it
+     * holds the exclusive state lock.
+     *
+     * @param senderId ID of the neighbor the transfer came from.
+     * @param tag      Tag piggybacked on the transfer.
+     */
+    public void recordBeforeTransfer(int senderId, String tag) {
+    }
+
+    /**
+     * Passes a completed subtree result on: to the parent as a SNAPSHOT_REPORT, or, on the
+     * initiator, into the global snapshot report.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @param assembly   Completed assembly of this node's subtree.
+     */
+    protected void completeAssembly(SnapshotId snapshotId, SnapshotAssembly assembly) {
+        if (assembly.getParent() < 0) {
+            SnapshotReport report = assembly.getReport();
+            writeSettledChannels(snapshotId, assembly);
+            writeGlobalStateToOutput(snapshotId, report, assembly.elapsedNanos());
+        } else {
+            writeSettledChannels(snapshotId, assembly);
+            assembly.countMessages(1);
+            runtime.sendMessageTo(assembly.getParent(), new Message("SNAPSHOT_REPORT", getNodeId(), assembly.toContent(snapshotId)));
+        }
+    }
+
+    /**
+     * Writes the channels this node settled for a snapshot. Channels that received more than was
+     * sent show that the recorded cut is not consistent, and are only logged.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @param assembly   Assembly the channels were settled in.
+     */
+    protected void writeSettledChannels(SnapshotId snapshotId, SnapshotAssembly assembly) {
+        for (ChannelLedger.ChannelState channel : assembly.drainSettledChannels()) {
+            if (channel.amount() > 0) {
+                writeChannelStateToOutput(snapshotId, channel.to(), channel.from(), channel.amount());
+            } else {
+                logger.warn("Channel from Node {} to Node {} received {} more than was sent in snapshot {}, the cut is not consistent.",
+                        channel.from(), channel.to(), -channel.amount(), snapshotId);
+            }
+        }
+    }
+
+    /**
+     * Writes the assembled global state of a snapshot and checks it against the configured total.
+     *
+     * @param snapshotId   ID of the snapshot.
+     * @param report       Merged result of all nodes.
+     * @param elapsedNanos Time from initiation to assembly.
+     */
+    protected void writeGlobalStateToOutput(SnapshotId snapshotId, SnapshotReport report, long elapsedNanos) {
+        long expected = runtime.getExpectedTotal();
+        String conserved = expected < 0 ? "unknown" : String.valueOf(report.total() == expected);
+        String line = "GLOBAL SNAPSHOT " + snapshotId + " | Nodes: " + report.nodes() + " | Bitcakes: " + report.bitcakes()
+                + " | In transit: " + report.inTransit() + " | Total: " + report.total() + " | Expected: " + expected
+                + " | Conserved: " + conserved + " | Messages: " + report.messages()
+                + " | Latency: " + String.format("%.3f", elapsedNanos / 1_000_000.0) + " ms";
+        writeToOutput(line);
+        logger.info(line);
+        runtime.getMetrics().snapshotCompleted(elapsedNanos);
+        runtime.snapshotCompleted(snapshotId, report, elapsedNanos);
+    }
+
+    /**
+     * Creates the ID for a snapshot initiated by this node. Sequence numbers continue from the
+     * highest one already in the snapshot store.
+     *
+     * @return New snapshot ID.
+     */
+    protected SnapshotId nextSnapshotId() {
+        if (lastSequence < 0) {
+            lastSequence = storedSequence();
+        }
+        return new SnapshotId(getNodeId(), ++lastSequence);
+    }
+
+    /**
+     * Stops recording the channel from a neighbor after its marker arrived, and records how long the
+     * channel waited for it.
+     *
+     * @param recording Recording of the snapshot.
+     * @param senderId  ID of the neighbor.
+     * @return True if the channel was open, false if it was already closed or unknown.
+     */
+    protected boolean closeChannel(ChannelRecording recording, int senderId) {
+        if (!recording.close(senderId)) {
+            return false;
+        }
+        runtime.getMetrics().markerWaited(senderId, recording.elapsedNanos());
+        return true;
+    }
+
+    /**
+     * Creates an empty channel recording laid out by this node's neighbors.
+     *
+     * @return New channel recording.
+     */
+    protected ChannelRecording newChannelRecording() {
+        return new ChannelRecording(runtime.getNeighborIndex(), runtime.getClock());
+    }
+
+    /**
+     * Creates the assembly of this node's part of a snapshot, timed by the runtime's clock.
+     *
+     * @param parent Node to report to, or -1 on the node that writes the global state.
+     * @return New snapshot assembly.
+     */
+    protected SnapshotAssembly newAssembly(int parent) {
+        return new SnapshotAssembly(parent, runtime.getClock());
+    }
+
+    /**
+     * Returns the highest sequence this node already persisted as initiator.
+     *
+     * @return Highest stored sequence, or 0 if none.
+     */
+    protected int storedSequence() {
+        return runtime.getSnapshotStore().lastSequence(getNodeId());
     }
 
     /**
-     * Checks if snapshot is complete (all neighbors have sent a marker).
+     * Checks if another snapshot may be started while some are still in progress.
      *
-     * @param receivedMarkers Set of node IDs from which marker was received.
-     * @return true if snapshot is complete, false otherwise.
+     * @param inProgress Number of snapshots in progress on this node.
+     * @return True if a new snapshot can be initiated, false otherwise.
      */
-    protected boolean isSnapshotComplete(Set<Integer> receivedMarkers) {
-        return receivedMarkers.containsAll(runtime.getNodeModel().getNeighbors());
+    protected boolean canInitiateSnapshot(int inProgress) {
+        return inProgress < runtime.getNodeModel().getSettings().getMaxConcurrentSnapshots();
+    }
+
+    /**
+     * Remembers that a snapshot finished on this node, so late control messages for it are ignored.
+     * Only the most recent snapshots are remembered.
+     *
+     * @param snapshotId ID of the finished snapshot.
+     */
+    protected void markFinished(SnapshotId snapshotId) {
+        if (!finishedSnapshots.add(snapshotId)) {
+            return;
+        }
+        finishedOrder.add(snapshotId);
+        while (finishedSnapshots.size() > FINISHED_HISTORY) {
+            SnapshotId eldest = finishedOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            finishedSnapshots.remove(eldest);
+        }
+    }
+
+    /**
+     * Checks if a snapshot already finished on this node. Safe to call without the snapshot lock.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @return True if the snapshot finished recently, false otherwise.
+     */
+    protected boolean isFinished(SnapshotId snapshotId) {
+        return finishedSnapshots.contains(snapshotId);
     }
 
     /**
@@ -117,10 +332,68 @@ public abstract class Snapshot {
     }
 
     /**
-     * Writes the current state of the node (Node ID and bitcake balance) to output.txt.
+     * Writes the current state of the node (Node ID and bitcake balance) to output.txt and the snapshot store.
+     *
+     * @param snapshotId ID of the snapshot being recorded.
+     * @return Recorded bitcake balance.
+     */
+    protected int writeNodeStateToOutput(SnapshotId snapshotId) {
+        int bitcake = getBitcake();
+        writeNodeStateLine(snapshotId, bitcake);
+        runtime.getSnapshotStore().append(snapshotId, getNodeId(), SnapshotStore.NODE_STATE, bitcake);
+        return bitcake;
+    }
+
+    /**
+     * Writes the state line of the node to output.txt only.
+     *
+     * @param snapshotId ID of the snapshot being recorded.
+     * @param bitcake    Recorded bitcake balance.
      */
-    protected void writeNodeStateToOutput() {
-        String state = "SNAPSHOT NODE_STATE: Node " + getNodeId() + " | Bitcakes: " + getBitcake();
-        writeToOutput(state);
+    protected void writeNodeStateLine(SnapshotId snapshotId, long bitcake) {
+        writeToOutput("SNAPSHOT NODE_STATE: Node " + getNodeId() + " | Bitcakes: " + bitcake + " | Snapshot " + snapshotId);
+    }
+
+    /**
+     * Writes the recorded state of one incoming channel to output.txt and the snapshot store.
+     *
+     * @param snapshotId ID of the snapshot being recorded.
+     * @param senderId   ID of the neighbor at the other end of the channel.
+     * @param amount     Bitcakes recorded in transit on the channel.
+     */
+    protected void writeChannelStateToOutput(SnapshotId snapshotId, int senderId, long amount) {
+        runtime.getMetrics().channelStateRecorded(amount);
+        writeToOutput("CHANNEL_STATE from Node " + senderId + ": " + amount + " bitcakes | Snapshot " + snapshotId);
+        runtime.getSnapshotStore().append(snapshotId, getNodeId(), senderId, amount);
+    }
+
+    /**
+     * Writes the state of a channel between two other nodes, settled by this node from their recorded
+     * counters, to output.txt and the snapshot store.
+     *
+     * @param snapshotId ID of the snapshot being recorded.
+     * @param receiverId ID of the node the channel goes to.
+     * @param senderId   ID of the node the channel comes from.
+     * @param amount     Bitcakes in transit on the channel.
+     */
+    protected void writeChannelStateToOutput(SnapshotId snapshotId, int receiverId, int senderId, long amount) {
+        runtime.getMetrics().channelStateRecorded(amount);
+        writeToOutput("CHANNEL_STATE from Node " + senderId + " to Node " + receiverId + ": " + amount + " bitcakes | Snapshot " + snapshotId);
+        runtime.getSnapshotStore().append(snapshotId, receiverId, senderId, amount);
+    }
+
+    /**
+     * Writes every channel on which something was recorded to output.txt and the snapshot store.
+     *
+     * @param snapshotId ID of the snapshot being recorded.
+     * @param recording  Recorded channel states.
+     */
+    protected void writeChannelStatesToOutput(SnapshotId snapshotId, ChannelRecording recording) {
+        NeighborIndex neighbors = recording.getNeighbors();
+        for (int i = 0; i < neighbors.size(); i++) {
+            if (recording.hasRecorded(i)) {
+                writeChannelStateToOutput(snapshotId, neighbors.idAt(i), recording.amountAt(i));
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package raf.aleksabuncic.types;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the results of one snapshot from a node and its children in the spanning tree.
+ * The tree is the one the snapshot's first markers travelled along: a node's parent is the
+ * neighbor whose marker made it record, and a node learns its children from the parent ID
+ * its neighbors put in their own markers.
+ * <p>
+ * Snapshots that derive channel states from recorded counters add the node's state instead of a
+ * finished local result, and the channels are settled in the assembly's ChannelLedger as the
+ * subtree reports come in.
+ */
+public class SnapshotAssembly {
+    private final int parent;
+    private final LongSupplier clock;
+    private final long startNanos;
+    private final ChannelLedger ledger = new ChannelLedger();
+    private SnapshotReport report = SnapshotReport.EMPTY;
+    private int children = 0;
+    private int reports = 0;
+    private long messages = 0;
+    private boolean localDone = false;
+
+    public SnapshotAssembly(int parent) {
+        this(parent, System::nanoTime);
+    }
+
+    public SnapshotAssembly(int parent, LongSupplier clock) {
+        this.parent = parent;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+    }
+
+    /**
+     * Counts a neighbor that chose this node as its parent.
+     */
+    public void addChild() {
+        children++;
+    }
+
+    /**
+     * Adds the merged result of a child's subtree, with the channel ends it left open.
+     *
+     * @param content Report content written by toContent.
+     */
+    public void addReport(String content) {
+        report = report.merge(SnapshotReport.parse(content));
+        ledger.addReport(content);
+        reports++;
+    }
+
+    /**
+     * Counts snapshot control messages sent by this node.
+     *
+     * @param count Number of messages sent.
+     */
+    public void countMessages(int count) {
+        messages += count;
+    }
+
+    /**
+     * Adds this node's own result. The set of children is final from this point on.
+     *
+     * @param localReport Result recorded by this node.
+     */
+    public void addLocal(SnapshotReport localReport) {
+        report = report.merge(localReport);
+        localDone = true;
+    }
+
+    /**
+     * Adds this node's recorded state: its balance, and its ends of its channels for the ledger.
+     * The set of children is final from this point on.
+     *
+     * @param nodeId    ID of this node.
+     * @param neighbors Neighbors of this node, by position.
+     * @param state     Recorded state.
+     */
+    public void addLocal(int nodeId, NeighborIndex neighbors, LocalState state) {
+        ledger.addLocal(nodeId, neighbors, state);
+        addLocal(new SnapshotReport(1, state.getBitcake(), 0, 0));
+    }
+
+    /**
+     * Checks if this node and all of its children have reported.
+     *
+     * @return True if the subtree result is complete.
+     */
+    public boolean isComplete() {
+        return localDone && reports >= children;
+    }
+
+    /**
+     * Gets the neighbor to report to.
+     *
+     * @return Parent ID, or -1 on the initiator.
+     */
+    public int getParent() {
+        return parent;
+    }
+
+    /**
+     * Gets the merged result so far, including the messages this node sent and the channels settled
+     * in the ledger. On the initiator the subtree is the whole snapshot, so channel ends still open
+     * are settled first.
+     *
+     * @return Subtree result.
+     */
+    public SnapshotReport getReport() {
+        if (parent < 0) {
+            ledger.settleOpen();
+        }
+        return report.merge(new SnapshotReport(0, 0, ledger.getInTransit(), messages));
+    }
+
+    /**
+     * Formats the subtree result as report content for the parent, followed by the channel ends
+     * still open, if any.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @return Report content.
+     */
+    public String toContent(SnapshotId snapshotId) {
+        String open = ledger.toContent();
+        String content = getReport().toContent(snapshotId);
+        return open.isEmpty() ? content : content + ":" + open;
+    }
+
+    /**
+     * Returns the channels settled in this assembly since the last call.
+     *
+     * @return Settled channels.
+     */
+    public List<ChannelLedger.ChannelState> drainSettledChannels() {
+        return ledger.drainSettled();
+    }
+
+    /**
+     * Gets the time since this node started the snapshot.
+     *
+     * @return Elapsed time in nanoseconds.
+     */
+    public long elapsedNanos() {
+        return clock.getAsLong() - startNanos;
+    }
+}
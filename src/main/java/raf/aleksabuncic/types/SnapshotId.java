@@ -0,0 +1,44 @@
+package raf.aleksabuncic.types;
+
+public record SnapshotId(int initiatorId, int sequence) {
+
+    /**
+     * Parses a snapshot ID from its message form.
+     *
+     * @param text Text in the form "initiatorId:sequence", optionally followed by more ":"-separated fields.
+     * @return Parsed snapshot ID.
+     */
+    public static SnapshotId parse(String text) {
+        int separator = text.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid snapshot id: " + text);
+        }
+        int end = text.indexOf(':', separator + 1);
+        return new SnapshotId(Integer.parseInt(text.substring(0, separator)),
+                Integer.parseInt(text.substring(separator + 1, end < 0 ? text.length() : end)));
+    }
+
+    /**
+     * Packs the ID into a single long, initiator in the high half and sequence in the low half.
+     *
+     * @return Packed ID.
+     */
+    public long asLong() {
+        return ((long) initiatorId << 32) | (sequence & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Unpacks an ID produced by asLong.
+     *
+     * @param packed Packed ID.
+     * @return Snapshot ID.
+     */
+    public static SnapshotId fromLong(long packed) {
+        return new SnapshotId((int) (packed >>> 32), (int) packed);
+    }
+
+    @Override
+    public String toString() {
+        return initiatorId + ":" + sequence;
+    }
+}
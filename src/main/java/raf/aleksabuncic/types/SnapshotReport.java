@@ -0,0 +1,56 @@
+package raf.aleksabuncic.types;
+
+/**
+ * Partial result of a snapshot, merged up the spanning tree towards the initiator.
+ *
+ * @param nodes     Number of nodes covered.
+ * @param bitcakes  Sum of the recorded node balances.
+ * @param inTransit Sum of the bitcakes recorded in transit on channels.
+ * @param messages  Number of snapshot control messages sent by the covered nodes.
+ */
+public record SnapshotReport(long nodes, long bitcakes, long inTransit, long messages) {
+    public static final SnapshotReport EMPTY = new SnapshotReport(0, 0, 0, 0);
+
+    /**
+     * Merges two partial results.
+     *
+     * @param other Result to add.
+     * @return Merged result.
+     */
+    public SnapshotReport merge(SnapshotReport other) {
+        return new SnapshotReport(nodes + other.nodes, bitcakes + other.bitcakes, inTransit + other.inTransit, messages + other.messages);
+    }
+
+    /**
+     * Gets the total amount of bitcakes in the snapshot.
+     *
+     * @return Node balances plus bitcakes in transit.
+     */
+    public long total() {
+        return bitcakes + inTransit;
+    }
+
+    /**
+     * Formats the report as message content, prefixed with the snapshot ID.
+     *
+     * @param snapshotId ID of the snapshot.
+     * @return Content in the form "initiatorId:sequence:nodes:bitcakes:inTransit:messages".
+     */
+    public String toContent(SnapshotId snapshotId) {
+        return snapshotId + ":" + nodes + ":" + bitcakes + ":" + inTransit + ":" + messages;
+    }
+
+    /**
+     * Parses the report part of message content produced by toContent.
+     *
+     * @param content Message content.
+     * @return Parsed report, or EMPTY if the content carries only a snapshot ID.
+     */
+    public static SnapshotReport parse(String content) {
+        String[] parts = content.split(":");
+        if (parts.length < 6) {
+            return EMPTY;
+        }
+        return new SnapshotReport(Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]), Long.parseLong(parts[5]));
+    }
+}
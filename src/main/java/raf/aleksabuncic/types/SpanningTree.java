@@ -0,0 +1,108 @@
+package raf.aleksabuncic.types;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Breadth-first spanning tree of the topology, rooted at one node. Parents are kept in an array by
+ * node index and children in compressed sparse row form, both indexed through the topology.
+ */
+public class SpanningTree {
+    private final Topology topology;
+    private final int root;
+    private final int[] parents;
+    private final int[] childOffsets;
+    private final int[] children;
+
+    /**
+     * Builds the tree from a parent array.
+     *
+     * @param topology Topology the indexes refer to.
+     * @param root     ID of the root.
+     * @param parents  Parent index of every node, the node itself for the root, -1 for unreached nodes.
+     */
+    SpanningTree(Topology topology, int root, int[] parents) {
+        this.topology = topology;
+        this.root = root;
+        this.parents = parents;
+        this.childOffsets = new int[parents.length + 1];
+        for (int i = 0; i < parents.length; i++) {
+            if (parents[i] >= 0 && parents[i] != i) {
+                childOffsets[parents[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < parents.length; i++) {
+            childOffsets[i + 1] += childOffsets[i];
+        }
+        this.children = new int[childOffsets[parents.length]];
+        int[] filled = new int[parents.length];
+        for (int i = 0; i < parents.length; i++) {
+            if (parents[i] >= 0 && parents[i] != i) {
+                children[childOffsets[parents[i]] + filled[parents[i]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Get the root of the tree
+     *
+     * @return Root node ID
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the parent of a node
+     *
+     * @param nodeId ID of the node
+     * @return Parent ID, or -1 for the root and for nodes the tree does not reach
+     */
+    public int parentOf(int nodeId) {
+        int index = topology.indexOf(nodeId);
+        if (index < 0 || parents[index] < 0 || parents[index] == index) {
+            return -1;
+        }
+        return topology.idAt(parents[index]);
+    }
+
+    /**
+     * Get the children of a node
+     *
+     * @param nodeId ID of the node
+     * @return Child IDs in ascending order, empty for leaves
+     */
+    public List<Integer> childrenOf(int nodeId) {
+        int index = topology.indexOf(nodeId);
+        if (index < 0) {
+            return List.of();
+        }
+        int start = childOffsets[index];
+        int size = childOffsets[index + 1] - start;
+        return new AbstractList<>() {
+            @Override
+            public Integer get(int i) {
+                if (i < 0 || i >= size) {
+                    throw new IndexOutOfBoundsException(i);
+                }
+                return topology.idAt(children[start + i]);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Check if the tree reaches a node
+     *
+     * @param nodeId ID of the node
+     * @return True if the node is the root or has a parent
+     */
+    public boolean contains(int nodeId) {
+        int index = topology.indexOf(nodeId);
+        return index >= 0 && parents[index] >= 0;
+    }
+}
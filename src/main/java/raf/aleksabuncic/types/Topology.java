@@ -0,0 +1,338 @@
+package raf.aleksabuncic.types;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable index of the whole configuration, shared by every runtime in the JVM.
+ * <p>
+ * Nodes are numbered densely in ascending ID order. Adjacency is kept in compressed sparse row
+ * form: the neighbors of the node at index i are targets[offsets[i]] to targets[offsets[i + 1] - 1],
+ * as node indexes in ascending order without duplicates. Ports are kept in an array by index, and
+ * every directed link is also kept in an open-addressing hash table of packed index pairs that maps
+ * it to its position in the row, so neighbor lookups take constant time. Node IDs map to indexes
+ * through a direct array when they are dense enough, and by binary search otherwise.
+ * <p>
+ * Every node is bound to its row when the topology is built, so runtimes and nodes read their
+ * neighbors from the shared arrays instead of keeping copies.
+ * <p>
+ * Spanning trees are built on demand and cached for the most recently used roots, so repeated
+ * snapshots from the same initiator reuse the same tree.
+ */
+public class Topology {
+    private static final int TREE_CACHE_SIZE = 64;
+    private static final long EMPTY = 0;
+
+    private final int[] ids;
+    private final int[] indexById;
+    private final int minId;
+    private final int[] ports;
+    private final int[] offsets;
+    private final int[] targets;
+    private final long[] links;
+    private final int[] linkPositions;
+    private final Map<Integer, SpanningTree> trees = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SpanningTree> eldest) {
+            return size() > TREE_CACHE_SIZE;
+        }
+    });
+
+    private Topology(int[] ids, int[] ports, int[] offsets, int[] targets) {
+        this.ids = ids;
+        this.ports = ports;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.minId = ids.length == 0 ? 0 : ids[0];
+        long range = ids.length == 0 ? 0 : (long) ids[ids.length - 1] - minId + 1;
+        if (range <= 2L * ids.length + 16) {
+            this.indexById = new int[(int) range];
+            Arrays.fill(indexById, -1);
+            for (int i = 0; i < ids.length; i++) {
+                indexById[ids[i] - minId] = i;
+            }
+        } else {
+            this.indexById = null;
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(4, targets.length * 2 - 1)) << 1;
+        this.links = new long[capacity];
+        this.linkPositions = new int[capacity];
+        for (int from = 0; from < ids.length; from++) {
+            for (int k = offsets[from]; k < offsets[from + 1]; k++) {
+                insertLink(pack(from, targets[k]), k - offsets[from]);
+            }
+        }
+    }
+
+    /**
+     * Builds the topology of a set of nodes and binds every node to its row. Neighbors that are not
+     * among the nodes are left out, and duplicate neighbors are kept once.
+     *
+     * @param nodes Nodes by ID.
+     * @return Topology.
+     */
+    public static Topology of(Map<Integer, Node> nodes) {
+        int[] ids = nodes.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int[] ports = new int[ids.length];
+        int[] offsets = new int[ids.length + 1];
+        for (int i = 0; i < ids.length; i++) {
+            Node node = nodes.get(ids[i]);
+            ports[i] = node.getPort();
+            offsets[i + 1] = offsets[i] + node.getNeighborCount();
+        }
+
+        int[] targets = new int[offsets[ids.length]];
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int start = size;
+            offsets[i] = start;
+            Node node = nodes.get(ids[i]);
+            for (int k = 0; k < node.getNeighborCount(); k++) {
+                int target = Arrays.binarySearch(ids, node.getNeighborAt(k));
+                if (target >= 0) {
+                    targets[size++] = target;
+                }
+            }
+            Arrays.sort(targets, start, size);
+            int end = start;
+            for (int k = start; k < size; k++) {
+                if (k == start || targets[k] != targets[end - 1]) {
+                    targets[end++] = targets[k];
+                }
+            }
+            size = end;
+        }
+        offsets[ids.length] = size;
+        Topology topology = new Topology(ids, ports, offsets, size == targets.length ? targets : Arrays.copyOf(targets, size));
+        for (int i = 0; i < ids.length; i++) {
+            nodes.get(ids[i]).bindNeighbors(new NeighborIndex(topology, i));
+        }
+        return topology;
+    }
+
+    /**
+     * Get the number of nodes
+     *
+     * @return Number of nodes
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Get the dense index of a node
+     *
+     * @param nodeId ID of the node
+     * @return Index of the node, or -1 for unknown nodes
+     */
+    public int indexOf(int nodeId) {
+        if (indexById != null) {
+            long offset = (long) nodeId - minId;
+            return offset >= 0 && offset < indexById.length ? indexById[(int) offset] : -1;
+        }
+        int index = Arrays.binarySearch(ids, nodeId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Get the ID of the node at an index
+     *
+     * @param index Index of the node
+     * @return Node ID
+     */
+    public int idAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Check if a node is part of the topology
+     *
+     * @param nodeId ID of the node
+     * @return True if the node is known, false if not
+     */
+    public boolean contains(int nodeId) {
+        return indexOf(nodeId) >= 0;
+    }
+
+    /**
+     * Get the port of a node
+     *
+     * @param nodeId ID of the node
+     * @return Port, or -1 for unknown nodes
+     */
+    public int portOf(int nodeId) {
+        int index = indexOf(nodeId);
+        return index < 0 ? -1 : ports[index];
+    }
+
+    /**
+     * Get the neighbors of a node, as a view of its row
+     *
+     * @param nodeId ID of the node
+     * @return Neighbors of the node, empty for unknown nodes
+     */
+    public NeighborIndex neighborsOf(int nodeId) {
+        return new NeighborIndex(this, indexOf(nodeId));
+    }
+
+    /**
+     * Get the start of a node's row in the adjacency
+     *
+     * @param index Index of the node, or -1 for an empty row
+     * @return Position of the first neighbor
+     */
+    int rowStart(int index) {
+        return index < 0 ? 0 : offsets[index];
+    }
+
+    /**
+     * Get the end of a node's row in the adjacency
+     *
+     * @param index Index of the node, or -1 for an empty row
+     * @return Position after the last neighbor
+     */
+    int rowEnd(int index) {
+        return index < 0 ? 0 : offsets[index + 1];
+    }
+
+    /**
+     * Get the ID of the neighbor at a position of the adjacency
+     *
+     * @param position Position in the adjacency
+     * @return Neighbor ID
+     */
+    int targetIdAt(int position) {
+        return ids[targets[position]];
+    }
+
+    /**
+     * Get the port of the neighbor at a position of the adjacency
+     *
+     * @param position Position in the adjacency
+     * @return Neighbor port
+     */
+    int targetPortAt(int position) {
+        return ports[targets[position]];
+    }
+
+    /**
+     * Find a neighbor in a node's row, in constant time
+     *
+     * @param index  Index of the node
+     * @param nodeId ID of the possible neighbor
+     * @return Position of the neighbor in the row, or -1 if the link does not exist
+     */
+    int positionInRow(int index, int nodeId) {
+        int to = indexOf(nodeId);
+        return index < 0 || to < 0 ? -1 : findLink(pack(index, to));
+    }
+
+    /**
+     * Returns the breadth-first spanning tree rooted at a node, building it on first use.
+     * Only links listed by both ends are used, so every tree edge can carry messages both ways.
+     *
+     * @param root ID of the root.
+     * @return Spanning tree.
+     */
+    public SpanningTree spanningTree(int root) {
+        SpanningTree tree = trees.get(root);
+        if (tree == null) {
+            tree = buildTree(root);
+            trees.put(root, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Runs a breadth-first search from the root, visiting neighbors in ascending ID order.
+     *
+     * @param root ID of the root.
+     * @return Spanning tree.
+     */
+    private SpanningTree buildTree(int root) {
+        int rootIndex = indexOf(root);
+        int[] parents = new int[ids.length];
+        Arrays.fill(parents, -1);
+        if (rootIndex < 0) {
+            return new SpanningTree(this, root, parents);
+        }
+
+        int[] queue = new int[ids.length];
+        int head = 0;
+        int tail = 0;
+        parents[rootIndex] = rootIndex;
+        queue[tail++] = rootIndex;
+        while (head < tail) {
+            int current = queue[head++];
+            for (int k = offsets[current]; k < offsets[current + 1]; k++) {
+                int neighbor = targets[k];
+                if (parents[neighbor] >= 0 || findLink(pack(neighbor, current)) < 0) {
+                    continue;
+                }
+                parents[neighbor] = current;
+                queue[tail++] = neighbor;
+            }
+        }
+        return new SpanningTree(this, root, parents);
+    }
+
+    /**
+     * Packs a directed link into a non-zero key.
+     *
+     * @param from Index of the source node.
+     * @param to   Index of the target node.
+     * @return Packed key.
+     */
+    private static long pack(int from, int to) {
+        return ((long) from << 32 | (to & 0xFFFFFFFFL)) + 1;
+    }
+
+    /**
+     * Gets the first slot to probe for a key.
+     *
+     * @param key Packed key.
+     * @return Slot index.
+     */
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (links.length - 1);
+    }
+
+    /**
+     * Adds a link to the hash table, by linear probing.
+     *
+     * @param key      Packed key.
+     * @param position Position of the target in the source's row.
+     */
+    private void insertLink(long key, int position) {
+        int slot = slotOf(key);
+        while (links[slot] != EMPTY) {
+            if (links[slot] == key) {
+                return;
+            }
+            slot = (slot + 1) & (links.length - 1);
+        }
+        links[slot] = key;
+        linkPositions[slot] = position;
+    }
+
+    /**
+     * Looks a link up in the hash table.
+     *
+     * @param key Packed key.
+     * @return Position of the target in the source's row, or -1 if the link does not exist.
+     */
+    private int findLink(long key) {
+        int slot = slotOf(key);
+        while (links[slot] != EMPTY) {
+            if (links[slot] == key) {
+                return linkPositions[slot];
+            }
+            slot = (slot + 1) & (links.length - 1);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,19 @@
+package raf.aleksabuncic.types;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class TopologySettings {
+    private String type = "ring";
+    private int nodes = 8;
+    private int degree = 3;
+    private int edgesPerNode = 2;
+    private int width = 0;
+    private boolean torus = false;
+    private long seed = 42;
+    private int firstId = 0;
+    private int portBase = 20000;
+    private int bitcake = 100;
+}
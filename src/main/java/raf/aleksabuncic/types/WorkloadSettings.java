@@ -0,0 +1,87 @@
+package raf.aleksabuncic.types;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+@Getter
+@Setter
+public class WorkloadSettings {
+    private long durationMillis = 10_000;
+    private double transfersPerSecond = 100;
+    private String amountDistribution = "uniform";
+    private int minAmount = 1;
+    private int maxAmount = 10;
+    private String destination = "uniform";
+    private double hotspotFraction = 0.8;
+    private long snapshotIntervalMillis = 1_000;
+    private String initiatorSelection = "round-robin";
+    private int initiatorId = -1;
+    private long drainMillis = 2_000;
+    private long seed = 42;
+
+    /**
+     * Check if snapshots should be started during the run
+     *
+     * @return True if a snapshot interval is set, false if the run only sends transfers
+     */
+    public boolean isSnapshotting() {
+        return snapshotIntervalMillis > 0;
+    }
+
+    /**
+     * Picks the node that starts the next snapshot.
+     *
+     * @param ids     IDs of all nodes, in ascending order.
+     * @param random  Random source of the snapshot schedule.
+     * @param started Number of snapshots started so far.
+     * @return ID of the initiator.
+     */
+    public int pickInitiator(List<Integer> ids, SplittableRandom random, int started) {
+        return switch (initiatorSelection.toLowerCase()) {
+            case "random" -> ids.get(random.nextInt(ids.size()));
+            case "fixed" -> initiatorId >= 0 ? initiatorId : ids.get(0);
+            default -> ids.get(started % ids.size());
+        };
+    }
+
+    /**
+     * Picks the neighbor a transfer goes to.
+     *
+     * @param neighbors Neighbors of the sending node.
+     * @param random    Random source of the sending node.
+     * @param round     Number of transfers the node attempted so far.
+     * @return ID of the chosen neighbor.
+     */
+    public int pickDestination(List<Integer> neighbors, SplittableRandom random, int round) {
+        return switch (destination.toLowerCase()) {
+            case "round-robin" -> neighbors.get(round % neighbors.size());
+            case "hotspot" -> neighbors.size() == 1 || random.nextDouble() < hotspotFraction
+                    ? neighbors.get(0)
+                    : neighbors.get(1 + random.nextInt(neighbors.size() - 1));
+            default -> neighbors.get(random.nextInt(neighbors.size()));
+        };
+    }
+
+    /**
+     * Picks the amount of a transfer.
+     *
+     * @param random Random source of the sending node.
+     * @return Amount between the configured minimum and maximum.
+     */
+    public int pickAmount(SplittableRandom random) {
+        int min = Math.max(1, minAmount);
+        int max = Math.max(min, maxAmount);
+        return switch (amountDistribution.toLowerCase()) {
+            case "fixed" -> max;
+            case "exponential" -> {
+                double mean = (max - min) / 2.0;
+                long amount = min + Math.round(-mean * Math.log(1 - random.nextDouble()));
+                yield (int) Math.min(max, amount);
+            }
+            default -> min + random.nextInt(max - min + 1);
+        };
+    }
+}